@@ -0,0 +1,128 @@
+package com.batch.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.batch.model.Batch;
+import com.batch.model.Price;
+
+/**
+ * Time to stage a whole batch with concurrent uploaders and to close or
+ * discard it.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BatchBenchmark {
+
+	@Param({ "10000", "100000" })
+	private int batchSize;
+
+	/**
+	 * Percent of the prices repeating an id of the batch.
+	 */
+	@Param({ "0", "50", "90" })
+	private int overlap;
+
+	@Param({ "1", "4", "16" })
+	private int threads;
+
+	/**
+	 * Prices per upload call.
+	 */
+	@Param({ "1000" })
+	private int chunkSize;
+
+	private ExecutorService executor;
+	private List<Price> prices;
+	private List<List<List<Price>>> chunks;
+	private Batch batch;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(threads);
+		prices = Prices.generate(batchSize, overlap, LocalDateTime.now());
+		chunks = Prices.chunks(prices, threads, chunkSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Setup(Level.Invocation)
+	public void newBatch() {
+		batch = new Batch(1);
+	}
+
+	@Benchmark
+	public Batch upload() throws InterruptedException, ExecutionException {
+		final List<Future<?>> uploads = new ArrayList<>(threads);
+		for (List<List<Price>> uploaderChunks : chunks) {
+			uploads.add(executor.submit(() -> uploaderChunks.forEach(batch::upload)));
+		}
+		for (Future<?> upload : uploads) {
+			upload.get();
+		}
+		return batch;
+	}
+
+	@Benchmark
+	public void closeAndRefresh(FilledBatch filled, Blackhole blackhole) {
+		filled.batch.closeAndRefresh().forEach(blackhole::consume);
+	}
+
+	/**
+	 * Discard as a commit whose prices are dropped, as it was before
+	 * {@link Batch#discard()}.
+	 */
+	@Benchmark
+	public void discardByClose(FilledBatch filled) {
+		filled.batch.closeAndRefresh().close();
+	}
+
+	@Benchmark
+	public long discard(FilledBatch filled) {
+		return filled.batch.discard();
+	}
+
+	@State(Scope.Benchmark)
+	public static class FilledBatch {
+
+		private Batch batch;
+
+		@Setup(Level.Invocation)
+		public void fill(BatchBenchmark benchmark) {
+			batch = new Batch(1);
+			benchmark.chunks.forEach(uploaderChunks -> uploaderChunks.forEach(batch::upload));
+		}
+	}
+
+}
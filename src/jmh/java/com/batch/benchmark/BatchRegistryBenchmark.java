@@ -0,0 +1,85 @@
+package com.batch.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.batch.component.OpenBatchTable;
+import com.batch.model.Batch;
+
+/**
+ * Time of a lookup of an open batch by its id, which every upload does, in the
+ * {@link OpenBatchTable} against the Ehcache heap cache it replaced. The ids
+ * are sequential as they are given out by the cache.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchRegistryBenchmark {
+
+	@Param({ "100", "10000" })
+	private int openBatches;
+
+	private CacheManager cacheManager;
+	private Cache<Long, Batch> ehcache;
+	private OpenBatchTable table;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
+				.withCache("batches", CacheConfigurationBuilder
+						.newCacheConfigurationBuilder(Long.class, Batch.class, ResourcePoolsBuilder.heap(openBatches)))
+				.build(true);
+		ehcache = cacheManager.getCache("batches", Long.class, Batch.class);
+		table = new OpenBatchTable();
+		for (long id = 1; id <= openBatches; id++) {
+			final Batch batch = new Batch(id);
+			ehcache.put(id, batch);
+			table.put(batch);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		cacheManager.close();
+	}
+
+	@Benchmark
+	public Batch ehcache() {
+		return ehcache.get(nextId());
+	}
+
+	@Benchmark
+	public Batch openBatchTable() {
+		return table.get(nextId());
+	}
+
+	private long nextId() {
+		return 1 + ThreadLocalRandom.current().nextInt(openBatches);
+	}
+
+}
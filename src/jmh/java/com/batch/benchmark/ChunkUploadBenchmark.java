@@ -0,0 +1,88 @@
+package com.batch.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.batch.model.Batch;
+import com.batch.model.Price;
+import com.batch.model.PriceFinder;
+
+/**
+ * Throughput in prices per second of staging chunks with repeated ticks of the
+ * same instrument, reduced per chunk by {@link Batch#upload(List)} against one
+ * compute of the map per price.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ChunkUploadBenchmark {
+
+	private static final int PRICES = 100_000;
+	private static final int CHUNK_SIZE = 1000;
+
+	/**
+	 * Percent of the prices of a chunk repeating an id of the chunk.
+	 */
+	@Param({ "0", "50", "90", "99" })
+	private int duplicates;
+
+	private List<List<Price>> chunks;
+	private Batch batch;
+	private ConcurrentMap<Long, Price> pricesMap;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		chunks = Prices.chunks(Prices.ticks(PRICES, duplicates, CHUNK_SIZE, LocalDateTime.now()), 1, CHUNK_SIZE)
+				.get(0);
+	}
+
+	@Setup(Level.Invocation)
+	public void newBatch() {
+		batch = new Batch(1);
+		pricesMap = new ConcurrentHashMap<>();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PRICES)
+	public Batch reduceAndMerge() {
+		for (List<Price> chunk : chunks) {
+			batch.upload(chunk);
+		}
+		return batch;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PRICES)
+	public ConcurrentMap<Long, Price> computePerPrice() {
+		for (List<Price> chunk : chunks) {
+			for (Price price : chunk) {
+				pricesMap.compute(price.getId(), new PriceFinder(price));
+			}
+		}
+		return pricesMap;
+	}
+
+}
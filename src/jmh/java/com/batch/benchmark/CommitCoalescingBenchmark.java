@@ -0,0 +1,90 @@
+package com.batch.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batch.component.BatchMetrics;
+import com.batch.component.InMemoryCache;
+import com.batch.component.PriceResponseCache;
+import com.batch.component.UploadPipeline;
+import com.batch.feed.PriceFeed;
+import com.batch.model.Price;
+import com.batch.service.impl.CommitCoalescer;
+import com.batch.service.impl.PriceServiceImpl;
+import com.batch.store.PriceStore;
+import com.batch.store.impl.HeapPriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Commits per second of tiny batches created, uploaded and committed by many
+ * producers at once, with every commit published on its own and with the
+ * commits coalesced into groups. The number of producers is set with -t.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(8)
+public class CommitCoalescingBenchmark {
+
+	@Param({ "10" })
+	private int batchSize;
+
+	/**
+	 * Window of the group commit in milliseconds, -1 publishes every commit on
+	 * its own.
+	 */
+	@Param({ "-1", "0", "1" })
+	private int window;
+
+	private PriceServiceImpl service;
+	private List<Price> prices;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		final PriceStore priceStore = new HeapPriceStore();
+		final InMemoryCache cache = new InMemoryCache();
+		final BatchMetrics metrics = new BatchMetrics(new SimpleMeterRegistry(), priceStore, cache,
+				new PriceFeed(0, 0, priceStore), new PriceResponseCache(priceStore, new ObjectMapper(), 0),
+				new UploadPipeline());
+		service = new PriceServiceImpl();
+		ReflectionTestUtils.setField(service, "cache", cache);
+		ReflectionTestUtils.setField(service, "currentPrices", priceStore);
+		ReflectionTestUtils.setField(service, "metrics", metrics);
+		if (window >= 0) {
+			ReflectionTestUtils.setField(service, "coalescer", new CommitCoalescer(window, 64, metrics));
+		}
+		prices = Prices.generate(batchSize, 0, LocalDateTime.now());
+	}
+
+	@Benchmark
+	public void commit() {
+		final long batchId = service.createBatch().getId();
+		service.upload(batchId, prices);
+		service.commit(batchId);
+	}
+
+}
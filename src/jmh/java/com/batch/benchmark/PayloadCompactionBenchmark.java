@@ -0,0 +1,139 @@
+package com.batch.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.batch.model.Price;
+import com.batch.store.impl.HeapPriceStore;
+import com.batch.store.impl.PayloadCompactor;
+
+/**
+ * Time of a read from the heap store with its payloads kept as they are,
+ * interned, deflated or both, for quotes in JSON of which a share repeat. The
+ * footprint benchmark commits the quotes once per trial and reports the heap
+ * the store retains per price as counters, which is the other side of the
+ * trade off. The stored payload bytes count an interned payload for every
+ * price which shares it.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g", "-XX:+UseParallelGC" })
+public class PayloadCompactionBenchmark {
+
+	private static final int PRICES = 200_000;
+
+	/**
+	 * Compaction of the payloads, the ones which deflate with the bytes of the
+	 * preset dictionary after the slash.
+	 */
+	@Param({ "none", "dedup", "deflate/0", "deflate/1024", "deflate/4096", "deflate/32768", "dedup-deflate/0",
+			"dedup-deflate/1024", "dedup-deflate/4096", "dedup-deflate/32768" })
+	private String compaction;
+
+	/**
+	 * Percent of the prices with one of a few identical payloads.
+	 */
+	@Param({ "30", "90" })
+	private int repeated;
+
+	private HeapPriceStore store;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		store = newStore();
+		store.commit(Prices.quotes(PRICES, repeated, LocalDateTime.now()));
+	}
+
+	@Benchmark
+	public Price get() {
+		return store.get(ThreadLocalRandom.current().nextInt(PRICES));
+	}
+
+	/**
+	 * Commit of the quotes into an empty store, once, with the bytes per price
+	 * it retains.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	public HeapPriceStore footprint(Footprint footprint) throws InterruptedException {
+		List<Price> quotes = Prices.quotes(PRICES, repeated, LocalDateTime.now());
+		long payloadBytes = 0;
+		for (Price quote : quotes) {
+			payloadBytes += quote.getPayloadBytes().length;
+		}
+		final long before = usedHeap();
+		final HeapPriceStore committed = newStore();
+		committed.commit(quotes);
+		quotes = null;
+		footprint.retainedPerPrice = (usedHeap() - before) / PRICES;
+		footprint.payloadPerPrice = payloadBytes / PRICES;
+		footprint.storedPerPrice = committed.getFootprint().getPayloadLength() / PRICES;
+		return committed;
+	}
+
+	private HeapPriceStore newStore() {
+		final int slash = compaction.indexOf('/');
+		final String mode = slash < 0 ? compaction : compaction.substring(0, slash);
+		final int dictionarySize = slash < 0 ? 0 : Integer.parseInt(compaction.substring(slash + 1));
+		return new HeapPriceStore(0, 1,
+				new PayloadCompactor(mode.startsWith("dedup"), mode.endsWith("deflate") ? 128 : 0, dictionarySize));
+	}
+
+	/**
+	 * Heap in use after a full collection, as the memory pools report it.
+	 */
+	private static long usedHeap() throws InterruptedException {
+		System.gc();
+		Thread.sleep(100);
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+				used += pool.getCollectionUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Bytes per price of the footprint benchmark, reported with its single
+	 * measurement.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public long payloadPerPrice;
+		public long storedPerPrice;
+		public long retainedPerPrice;
+
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.batch.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batch.component.BatchMetrics;
+import com.batch.component.InMemoryCache;
+import com.batch.component.PriceResponseCache;
+import com.batch.component.UploadPipeline;
+import com.batch.feed.PriceFeed;
+import com.batch.model.Price;
+import com.batch.service.impl.PriceServiceImpl;
+import com.batch.store.PriceStore;
+import com.batch.store.impl.HeapPriceStore;
+import com.batch.store.impl.OffHeapPriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Commit of a batch into a populated price store, and reads of the latest
+ * prices alone and mixed with commits. The store is populated again for every
+ * iteration, so every commit merges into a store of the same size. The mix of
+ * readers and writers of the group benchmark is set with -tg readers,writers.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PriceServiceBenchmark {
+
+	private static final int MIXED_BATCH_SIZE = 100;
+
+	@Param({ "heap", "off-heap" })
+	private String store;
+
+	@Param({ "1000000" })
+	private int storeSize;
+
+	@Param({ "10000", "100000" })
+	private int batchSize;
+
+	/**
+	 * Percent of the committed prices replacing a price of the store.
+	 */
+	@Param({ "0", "50", "100" })
+	private int overlap;
+
+	/**
+	 * Number of prices from which the heap store merges a commit in parallel, 0
+	 * for sequential commits.
+	 */
+	@Param({ "0" })
+	private int parallelThreshold;
+
+	private PriceServiceImpl service;
+	private LocalDateTime asOf;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		final PriceStore priceStore = "heap".equals(store) ? new HeapPriceStore(parallelThreshold, 0)
+				: new OffHeapPriceStore();
+		final InMemoryCache cache = new InMemoryCache();
+		service = new PriceServiceImpl();
+		ReflectionTestUtils.setField(service, "cache", cache);
+		ReflectionTestUtils.setField(service, "currentPrices", priceStore);
+		ReflectionTestUtils.setField(service, "metrics",
+				new BatchMetrics(new SimpleMeterRegistry(), priceStore, cache,
+						new PriceFeed(0, 0, priceStore), new PriceResponseCache(priceStore, new ObjectMapper(), 0),
+						new UploadPipeline()));
+
+		asOf = LocalDateTime.now();
+		priceStore.commit(Prices.generate(storeSize, 0, 0, asOf));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public void commit(StagedBatch staged) {
+		service.commit(staged.batchId);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public Price getPrice() {
+		return service.getPrice(ThreadLocalRandom.current().nextLong(storeSize));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public Price mixedGetPrice() {
+		return service.getPrice(ThreadLocalRandom.current().nextLong(storeSize));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void mixedCommit() {
+		final long batchId = service.createBatch().getId();
+		service.upload(batchId, Prices.generate(MIXED_BATCH_SIZE, overlap, storeSize, nextAsOf()));
+		service.commit(batchId);
+	}
+
+	private synchronized LocalDateTime nextAsOf() {
+		asOf = asOf.plusSeconds(1);
+		return asOf;
+	}
+
+	@State(Scope.Benchmark)
+	public static class StagedBatch {
+
+		private long batchId;
+
+		@Setup(Level.Iteration)
+		public void stage(PriceServiceBenchmark benchmark) {
+			final List<Price> prices = Prices.generate(benchmark.batchSize, benchmark.overlap, benchmark.storeSize,
+					benchmark.nextAsOf());
+			batchId = benchmark.service.createBatch().getId();
+			benchmark.service.upload(batchId, prices);
+		}
+	}
+
+}
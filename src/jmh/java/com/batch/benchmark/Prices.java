@@ -0,0 +1,147 @@
+package com.batch.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.batch.model.Price;
+
+/**
+ * Generates prices for the benchmarks.
+ *
+ * @author faizanhussain
+ *
+ */
+final class Prices {
+
+	private static final String PAYLOAD = "8c5a2fd4-6a0b-4d1e-9f37-2b7e0c1a9d55";
+
+	private Prices() {
+	}
+
+	/**
+	 * Prices where overlap percent of the ids are taken from the existing ids
+	 * and the others are new ids following them.
+	 *
+	 * @param size
+	 * @param overlap
+	 *            percent of existing ids
+	 * @param existingIds
+	 *            ids 0 until existingIds already exist
+	 * @param asOf
+	 * @return
+	 */
+	static List<Price> generate(int size, int overlap, long existingIds, LocalDateTime asOf) {
+		final SplittableRandom random = new SplittableRandom(size * 31L + overlap);
+		final List<Price> prices = new ArrayList<>(size);
+		long newId = existingIds;
+		for (int i = 0; i < size; i++) {
+			final boolean overlapping = existingIds > 0 && random.nextInt(100) < overlap;
+			final long id = overlapping ? random.nextLong(existingIds) : newId++;
+			prices.add(new Price(id, asOf.plusNanos(i), PAYLOAD));
+		}
+		return prices;
+	}
+
+	/**
+	 * Prices where overlap percent of the ids repeat an id of an earlier price
+	 * in the list.
+	 *
+	 * @param size
+	 * @param overlap
+	 *            percent of repeated ids
+	 * @param asOf
+	 * @return
+	 */
+	static List<Price> generate(int size, int overlap, LocalDateTime asOf) {
+		final SplittableRandom random = new SplittableRandom(size * 17L + overlap);
+		final List<Price> prices = new ArrayList<>(size);
+		long newId = 0;
+		for (int i = 0; i < size; i++) {
+			final boolean overlapping = newId > 0 && random.nextInt(100) < overlap;
+			final long id = overlapping ? random.nextLong(newId) : newId++;
+			prices.add(new Price(id, asOf.plusNanos(i), PAYLOAD));
+		}
+		return prices;
+	}
+
+	/**
+	 * Ticks where duplicates percent of every chunk repeat an instrument of the
+	 * same chunk, the latest tick of an instrument comes last.
+	 *
+	 * @param size
+	 * @param duplicates
+	 *            percent of repeated ids in a chunk
+	 * @param chunkSize
+	 * @param asOf
+	 * @return
+	 */
+	static List<Price> ticks(int size, int duplicates, int chunkSize, LocalDateTime asOf) {
+		final SplittableRandom random = new SplittableRandom(size * 13L + duplicates);
+		final int instruments = Math.max(1, chunkSize * (100 - duplicates) / 100);
+		final List<Price> prices = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			final int chunk = i / chunkSize;
+			final int offset = i % chunkSize;
+			final long instrument = offset < instruments ? offset : random.nextInt(instruments);
+			prices.add(new Price((long) chunk * chunkSize + instrument, asOf.plusNanos(i), PAYLOAD));
+		}
+		return prices;
+	}
+
+	/**
+	 * Splits the prices into chunks of at most chunkSize, dealt round robin to
+	 * the uploaders.
+	 */
+	static List<List<List<Price>>> chunks(List<Price> prices, int uploaders, int chunkSize) {
+		final List<List<List<Price>>> chunks = new ArrayList<>(uploaders);
+		for (int i = 0; i < uploaders; i++) {
+			chunks.add(new ArrayList<>());
+		}
+		for (int from = 0, i = 0; from < prices.size(); from += chunkSize, i++) {
+			chunks.get(i % uploaders).add(prices.subList(from, Math.min(prices.size(), from + chunkSize)));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Prices with a quote in JSON as the payload, as a feed would send them:
+	 * the same fields and venues with different values. Repeated percent of
+	 * the instruments carry one of a few identical payloads, like the quotes of
+	 * suspended instruments.
+	 *
+	 * @param size
+	 * @param repeated
+	 *            percent of prices with a repeated payload
+	 * @param asOf
+	 * @return
+	 */
+	static List<Price> quotes(int size, int repeated, LocalDateTime asOf) {
+		final SplittableRandom random = new SplittableRandom(size * 31L + repeated);
+		final String[] venues = { "XETR", "XLON", "XPAR", "XAMS", "XSWX", "XMIL", "BATE", "CHIX" };
+		final String[] currencies = { "EUR", "GBP", "CHF", "USD" };
+		final List<Price> prices = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			final String payload;
+			if (random.nextInt(100) < repeated) {
+				final int status = random.nextInt(8);
+				payload = "{\"status\":\"SUSPENDED\",\"reason\":\"code " + status
+						+ "\",\"bid\":null,\"ask\":null,\"bidSize\":0,\"askSize\":0,\"venue\":\"" + venues[status]
+						+ "\",\"conditions\":[\"halted\",\"no-quote\"],\"source\":\"primary-listing-feed\"}";
+			} else {
+				final int mid = 1000 + random.nextInt(100_000);
+				payload = "{\"status\":\"OPEN\",\"instrument\":\"XS" + (1_000_000_000L + i) + "\",\"bid\":"
+						+ (mid - 1 - random.nextInt(5)) / 100.0 + ",\"ask\":" + (mid + 1 + random.nextInt(5)) / 100.0
+						+ ",\"bidSize\":" + 100 * (1 + random.nextInt(500)) + ",\"askSize\":"
+						+ 100 * (1 + random.nextInt(500)) + ",\"currency\":\"" + currencies[random.nextInt(4)]
+						+ "\",\"venue\":\"" + venues[random.nextInt(venues.length)] + "\",\"sequence\":"
+						+ random.nextInt(Integer.MAX_VALUE)
+						+ ",\"conditions\":[\"firm\",\"regular\"],\"source\":\"primary-listing-feed\"}";
+			}
+			prices.add(new Price(i, asOf.plusNanos(i), payload));
+		}
+		return prices;
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.batch.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.batch.Application;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Latency of a quick request to a server with few worker threads while many
+ * slow clients upload a chunk, through the blocking stream endpoint and
+ * through the non blocking async endpoint. Every client sends its body in
+ * pieces with a pause between them, so with the blocking endpoint each one
+ * holds a worker thread until its last piece arrives.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SlowClientBenchmark {
+
+	private static final int WORKER_THREADS = 16;
+	private static final int PRICES = 200;
+	private static final int PIECES = 20;
+	private static final long PAUSE_MILLIS = 50;
+	private static final long START_MILLIS = 100;
+
+	@Param({ "stream", "async" })
+	private String endpoint;
+
+	@Param({ "8", "64" })
+	private int clients;
+
+	private ConfigurableApplicationContext context;
+	private ExecutorService executor;
+	private final String host = "localhost";
+	private int port;
+	private String batches;
+	private byte[] body;
+	private List<Future<Integer>> uploads;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		context = new SpringApplicationBuilder(Application.class).properties("server.port=0",
+				"server.tomcat.max-threads=" + WORKER_THREADS, "logging.level.com.batch=WARN").run();
+		port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+		batches = "http://" + host + ":" + port + "/batches/";
+		executor = Executors.newFixedThreadPool(clients);
+		body = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+				.build().writeValueAsBytes(Prices.generate(PRICES, 0, LocalDateTime.now()));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executor.shutdownNow();
+		context.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void startUploads() throws IOException, InterruptedException {
+		final long[] batchIds = new long[clients];
+		for (int i = 0; i < clients; i++) {
+			batchIds[i] = create();
+		}
+		uploads = new ArrayList<>(clients);
+		for (long batchId : batchIds) {
+			uploads.add(executor.submit(() -> slowUpload(batchId)));
+		}
+		Thread.sleep(START_MILLIS);
+	}
+
+	@TearDown(Level.Invocation)
+	public void awaitUploads() throws InterruptedException, ExecutionException {
+		for (Future<Integer> upload : uploads) {
+			if (upload.get() != 204) {
+				throw new IllegalStateException("Upload failed with " + upload.get());
+			}
+		}
+	}
+
+	@Benchmark
+	public long createWhileUploading() throws IOException {
+		return create();
+	}
+
+	private long create() throws IOException {
+		final HttpURLConnection connection = open(batches + "create", "POST");
+		try (InputStream in = connection.getInputStream(); Scanner scanner = new Scanner(in, "UTF-8")) {
+			return scanner.nextLong();
+		}
+	}
+
+	/**
+	 * Raw socket, so every piece is sent when it is written.
+	 */
+	private int slowUpload(long batchId) throws IOException, InterruptedException {
+		try (Socket socket = new Socket(host, port)) {
+			final OutputStream out = socket.getOutputStream();
+			out.write(("PUT /batches/" + batchId + "/" + endpoint + " HTTP/1.1\r\nHost: " + host
+					+ "\r\nContent-Type: application/json\r\nContent-Length: " + body.length
+					+ "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			final int piece = (body.length + PIECES - 1) / PIECES;
+			for (int from = 0; from < body.length; from += piece) {
+				out.write(body, from, Math.min(piece, body.length - from));
+				out.flush();
+				Thread.sleep(PAUSE_MILLIS);
+			}
+			final BufferedReader in = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			final String statusLine = in.readLine();
+			return statusLine == null ? -1 : Integer.parseInt(statusLine.split(" ")[1]);
+		}
+	}
+
+	private static HttpURLConnection open(String url, String method) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty("Accept", "application/json");
+		return connection;
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.batch.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.batch.model.Batch;
+import com.batch.model.Price;
+import com.batch.model.PriceFinder;
+import com.batch.model.StagedPrices;
+import com.batch.model.StagingTablePool;
+
+/**
+ * Lifecycle of a batch: create, upload in chunks, close and read the staged
+ * prices and give them back. Run with -prof gc, the gc.alloc.rate.norm is the
+ * allocation per batch. The map staging is the ConcurrentHashMap of Long to
+ * Price batches used before the staging tables, the prices themselves are
+ * allocated once in the setup.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StagingPoolBenchmark {
+
+	@Param({ "10000", "100000" })
+	private int batchSize;
+
+	/**
+	 * map, table, hinted table, pooled table or pooled hinted table
+	 */
+	@Param({ "map", "table", "hinted", "pooled", "pooled-hinted" })
+	private String staging;
+
+	private StagingTablePool pool;
+	private List<List<Price>> chunks;
+	private long batchId;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		pool = staging.startsWith("pooled") ? new StagingTablePool(4) : StagingTablePool.NONE;
+		chunks = Prices.chunks(Prices.generate(batchSize, 0, LocalDateTime.now()), 1, 1000).get(0);
+	}
+
+	@Benchmark
+	public void batch(Blackhole blackhole) {
+		if (staging.equals("map")) {
+			map(blackhole);
+			return;
+		}
+		final Batch batch = new Batch(++batchId, staging.endsWith("hinted") ? batchSize : 0, 0, null, pool);
+		for (List<Price> chunk : chunks) {
+			batch.upload(chunk);
+		}
+		try (StagedPrices prices = batch.closeAndRefresh()) {
+			prices.forEach(blackhole::consume);
+		}
+	}
+
+	private void map(Blackhole blackhole) {
+		final ConcurrentMap<Long, Price> pricesMap = new ConcurrentHashMap<>();
+		for (List<Price> chunk : chunks) {
+			for (Price price : chunk) {
+				final Long id = price.getId();
+				for (;;) {
+					final Price staged = pricesMap.putIfAbsent(id, price);
+					if (staged == null || !PriceFinder.isNewPrice(staged, price)
+							|| pricesMap.replace(id, staged, price)) {
+						break;
+					}
+				}
+			}
+		}
+		pricesMap.values().forEach(blackhole::consume);
+	}
+
+}
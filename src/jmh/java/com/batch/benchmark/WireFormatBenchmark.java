@@ -0,0 +1,107 @@
+package com.batch.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.batch.codec.BinaryPriceFormat;
+import com.batch.codec.BinaryPriceReader;
+import com.batch.codec.JsonPriceReader;
+import com.batch.model.Price;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+
+/**
+ * Throughput in prices per second of reading an upload and writing a price in
+ * JSON and in the binary format.
+ *
+ * @author faizanhussain
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+	private static final int PRICES = 10_000;
+
+	@Param({ "32", "256" })
+	private int payloadSize;
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+			.featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).modulesToInstall(ParameterNamesModule.class)
+			.build();
+	private final JsonPriceReader jsonReader = new JsonPriceReader(objectMapper);
+	private final BinaryPriceReader binaryReader = new BinaryPriceReader();
+
+	private Price price;
+	private byte[] json;
+	private byte[] binary;
+
+	@Setup
+	public void setUp() throws IOException {
+		final LocalDateTime asOf = LocalDateTime.now();
+		final StringBuilder payload = new StringBuilder();
+		while (payload.length() < payloadSize) {
+			payload.append("0123456789abcdef");
+		}
+		final List<Price> prices = LongStream.range(0, PRICES)
+				.mapToObj(id -> new Price(id, asOf.plusNanos(id), payload.substring(0, payloadSize)))
+				.collect(Collectors.toList());
+		price = prices.get(0);
+		json = objectMapper.writeValueAsBytes(prices);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Price each : prices) {
+			out.write(BinaryPriceFormat.encode(each));
+		}
+		binary = out.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PRICES)
+	public void readJson(Blackhole blackhole) throws IOException {
+		jsonReader.read(new ByteArrayInputStream(json), blackhole::consume);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PRICES)
+	public void readBinary(Blackhole blackhole) throws IOException {
+		binaryReader.read(new ByteArrayInputStream(binary), blackhole::consume);
+	}
+
+	@Benchmark
+	public byte[] writeJson() throws IOException {
+		return objectMapper.writeValueAsBytes(price);
+	}
+
+	@Benchmark
+	public byte[] writeBinary() {
+		return BinaryPriceFormat.encode(price);
+	}
+
+}
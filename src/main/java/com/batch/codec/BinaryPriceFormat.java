@@ -0,0 +1,117 @@
+package com.batch.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.springframework.http.MediaType;
+
+import com.batch.model.EpochNanos;
+import com.batch.model.Price;
+
+/**
+ * Binary format of prices. A message is a sequence of records, each one is
+ * 
+ * <pre>
+ * id: long | asOf epoch nanos: long | payload length: int | payload bytes in UTF-8
+ * </pre>
+ * 
+ * in big endian. A price without a payload has the payload length -1 and no
+ * payload bytes.
+ * 
+ * @author faizanhussain
+ *
+ */
+public final class BinaryPriceFormat {
+
+	public static final String MEDIA_TYPE_VALUE = "application/x-price-binary";
+
+	public static final MediaType MEDIA_TYPE = MediaType.valueOf(MEDIA_TYPE_VALUE);
+
+	public static final int HEADER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+	/**
+	 * Payload length of a price without a payload.
+	 */
+	public static final int NULL_LENGTH = -1;
+
+	private BinaryPriceFormat() {
+	}
+
+	public static byte[] encode(Price price) {
+		final byte[] payload = price.getPayloadBytes();
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (payload == null ? 0 : payload.length))
+				.putLong(price.getId()).putLong(EpochNanos.of(price.getAsOf()));
+		if (payload == null) {
+			buffer.putInt(NULL_LENGTH);
+		} else {
+			buffer.putInt(payload.length).put(payload);
+		}
+		return buffer.array();
+	}
+
+	public static void write(Price price, DataOutput out) throws IOException {
+		final byte[] payload = price.getPayloadBytes();
+		out.writeLong(price.getId());
+		out.writeLong(EpochNanos.of(price.getAsOf()));
+		if (payload == null) {
+			out.writeInt(NULL_LENGTH);
+		} else {
+			out.writeInt(payload.length);
+			out.write(payload);
+		}
+	}
+
+	public static Price read(DataInput in) throws IOException {
+		final long id = in.readLong();
+		final long asOf = in.readLong();
+		final int length = in.readInt();
+		final byte[] payload = length == NULL_LENGTH ? null : new byte[length];
+		if (payload != null) {
+			in.readFully(payload);
+		}
+		return new Price(id, EpochNanos.toLocalDateTime(asOf), payload);
+	}
+
+	/**
+	 * Reads the record at the position of the buffer, which does not have to be
+	 * backed by an array.
+	 *
+	 * @param buffer
+	 *            with the whole record remaining
+	 * @return price
+	 */
+	public static Price read(ByteBuffer buffer) {
+		final long id = buffer.getLong();
+		final long asOf = buffer.getLong();
+		final int length = buffer.getInt();
+		final byte[] payload = length == NULL_LENGTH ? null : new byte[length];
+		if (payload != null) {
+			buffer.get(payload);
+		}
+		return new Price(id, EpochNanos.toLocalDateTime(asOf), payload);
+	}
+
+	/**
+	 * @param buffer
+	 * @return size of the record at the position of the buffer or -1 if its
+	 *         header is not complete
+	 */
+	public static int recordSize(ByteBuffer buffer) {
+		if (buffer.remaining() < HEADER_SIZE) {
+			return -1;
+		}
+		return HEADER_SIZE + payloadSize(buffer.getInt(buffer.position() + Long.BYTES + Long.BYTES));
+	}
+
+	/**
+	 * @param length
+	 *            payload length of a record
+	 * @return bytes of the payload in the record
+	 */
+	public static int payloadSize(int length) {
+		return length == NULL_LENGTH ? 0 : length;
+	}
+
+}
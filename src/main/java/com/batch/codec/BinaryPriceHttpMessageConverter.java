@@ -0,0 +1,51 @@
+package com.batch.codec;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import com.batch.model.Price;
+
+/**
+ * Writes a price in the {@link BinaryPriceFormat} when the client accepts it.
+ * 
+ * @author faizanhussain
+ *
+ */
+@Component
+public class BinaryPriceHttpMessageConverter extends AbstractHttpMessageConverter<Price> {
+
+	public BinaryPriceHttpMessageConverter() {
+		super(BinaryPriceFormat.MEDIA_TYPE);
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return Price.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	protected boolean canRead(MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected Price readInternal(Class<? extends Price> clazz, HttpInputMessage inputMessage)
+			throws IOException, HttpMessageNotReadableException {
+		throw new HttpMessageNotReadableException("Prices are read with the BinaryPriceReader.");
+	}
+
+	@Override
+	protected void writeInternal(Price price, HttpOutputMessage outputMessage)
+			throws IOException, HttpMessageNotWritableException {
+		StreamUtils.copy(BinaryPriceFormat.encode(price), outputMessage.getBody());
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.batch.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.EpochNanos;
+import com.batch.model.Price;
+
+/**
+ * Reads prices in the {@link BinaryPriceFormat}. Records are decoded in place
+ * from one reused buffer, the only allocations are the price itself.
+ * 
+ * @author faizanhussain
+ *
+ */
+@Component
+public class BinaryPriceReader implements PriceReader {
+
+	static final int BLOCK_SIZE = 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Largest record accepted, the length of a payload is read from the client
+	 * before the record is buffered.
+	 */
+	static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	@Override
+	public void read(InputStream in, Consumer<List<Price>> blocks) throws IOException {
+		final ReadableByteChannel channel = Channels.newChannel(in);
+		final List<Price> block = new ArrayList<>(BLOCK_SIZE);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		while (channel.read(buffer) >= 0) {
+			buffer.flip();
+			decode(buffer, block, blocks);
+			buffer = compact(buffer);
+		}
+		end(buffer, block, blocks);
+	}
+
+	@Override
+	public PriceDecoder decoder(Consumer<List<Price>> blocks) {
+		return new Decoder(blocks);
+	}
+
+	/**
+	 * Decodes the complete records of the flipped buffer.
+	 */
+	private static void decode(ByteBuffer buffer, List<Price> block, Consumer<List<Price>> blocks) {
+		while (buffer.remaining() >= BinaryPriceFormat.HEADER_SIZE) {
+			final int length = buffer.getInt(buffer.position() + Long.BYTES + Long.BYTES);
+			if (length < BinaryPriceFormat.NULL_LENGTH || length > MAX_RECORD_SIZE - BinaryPriceFormat.HEADER_SIZE) {
+				throw new HttpMessageNotReadableException("Invalid payload length: " + length);
+			}
+			if (buffer.remaining() < BinaryPriceFormat.HEADER_SIZE + BinaryPriceFormat.payloadSize(length)) {
+				break;
+			}
+			block.add(decode(buffer, length));
+			if (block.size() == BLOCK_SIZE) {
+				blocks.accept(block);
+				block.clear();
+			}
+		}
+	}
+
+	private static void end(ByteBuffer buffer, List<Price> block, Consumer<List<Price>> blocks) {
+		if (buffer.position() > 0) {
+			throw new HttpMessageNotReadableException("Truncated price record of " + buffer.position() + " bytes.");
+		}
+		if (!block.isEmpty()) {
+			blocks.accept(block);
+		}
+	}
+
+	private static Price decode(ByteBuffer buffer, int length) {
+		final long id = buffer.getLong();
+		final long asOf = buffer.getLong();
+		buffer.position(buffer.position() + Integer.BYTES);
+		final byte[] payload = length == BinaryPriceFormat.NULL_LENGTH ? null : new byte[length];
+		if (payload != null) {
+			buffer.get(payload);
+		}
+		return new Price(id, EpochNanos.toLocalDateTime(asOf), payload);
+	}
+
+	/**
+	 * Moves the partial record to the front and grows the buffer if the record
+	 * is bigger than it. The length of the record was checked by decode.
+	 */
+	private static ByteBuffer compact(ByteBuffer buffer) {
+		if (buffer.remaining() >= BinaryPriceFormat.HEADER_SIZE) {
+			final int size = BinaryPriceFormat.recordSize(buffer);
+			if (size > buffer.capacity()) {
+				return ByteBuffer.allocate(size).put(buffer);
+			}
+		}
+		return buffer.compact();
+	}
+
+	private static final class Decoder implements PriceDecoder {
+		private final Consumer<List<Price>> blocks;
+		private final List<Price> block = new ArrayList<>(BLOCK_SIZE);
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		Decoder(Consumer<List<Price>> blocks) {
+			this.blocks = blocks;
+		}
+
+		@Override
+		public void feed(byte[] bytes, int offset, int length) {
+			int fed = 0;
+			while (fed < length) {
+				final int size = Math.min(buffer.remaining(), length - fed);
+				buffer.put(bytes, offset + fed, size);
+				fed += size;
+				buffer.flip();
+				decode(buffer, block, blocks);
+				buffer = compact(buffer);
+			}
+		}
+
+		@Override
+		public void end() {
+			BinaryPriceReader.end(buffer, block, blocks);
+		}
+	}
+
+}
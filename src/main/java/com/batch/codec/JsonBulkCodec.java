@@ -0,0 +1,90 @@
+package com.batch.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.Price;
+import com.batch.store.PriceSnapshot;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Bulk read in JSON. Reads an array of ids one at a time and writes the price
+ * of every id as soon as it is read, an id without a price is written as
+ * {"id": id, "missing": true} and an id owned by another node is written as
+ * {"id": id, "owner": base url of the node}.
+ * 
+ * @author faizanhussain
+ *
+ */
+@Component
+public class JsonBulkCodec {
+
+	private final JsonFactory jsonFactory;
+	private final ObjectWriter priceWriter;
+
+	@Autowired
+	public JsonBulkCodec(ObjectMapper objectMapper) {
+		this.jsonFactory = objectMapper.getFactory();
+		this.priceWriter = objectMapper.writerFor(Price.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	}
+
+	/**
+	 * @param snapshot
+	 * @param ids
+	 * @param out
+	 * @param owner
+	 *            base url of the node which owns an id, null if the snapshot
+	 *            has it
+	 * @throws IOException
+	 */
+	public void write(PriceSnapshot snapshot, InputStream ids, OutputStream out, LongFunction<String> owner)
+			throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(ids);
+				JsonGenerator generator = jsonFactory.createGenerator(out)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new HttpMessageNotReadableException("Expected a JSON array of price ids.");
+			}
+			generator.writeStartArray();
+			while (parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+				final long id = parser.getLongValue();
+				final String node = owner.apply(id);
+				if (node != null) {
+					generator.writeStartObject();
+					generator.writeNumberField("id", id);
+					generator.writeStringField("owner", node);
+					generator.writeEndObject();
+					continue;
+				}
+				final Price price = snapshot.get(id);
+				if (price == null) {
+					generator.writeStartObject();
+					generator.writeNumberField("id", id);
+					generator.writeBooleanField("missing", true);
+					generator.writeEndObject();
+				} else {
+					priceWriter.writeValue(generator, price);
+				}
+			}
+			if (parser.currentToken() != JsonToken.END_ARRAY) {
+				throw new HttpMessageNotReadableException("Expected a price id or the end of the array.");
+			}
+			generator.writeEndArray();
+		} catch (JsonProcessingException e) {
+			throw new HttpMessageNotReadableException("Invalid JSON of price ids: " + e.getOriginalMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.batch.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.Price;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Reads a JSON array of prices one element at a time. The decoder uses the
+ * non blocking parser and buffers the tokens of a price until it is complete.
+ * 
+ * @author faizanhussain
+ *
+ */
+@Component
+public class JsonPriceReader implements PriceReader {
+
+	static final int BLOCK_SIZE = 1024;
+
+	private final ObjectMapper objectMapper;
+
+	@Autowired
+	public JsonPriceReader(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public void read(InputStream in, Consumer<List<Price>> blocks) throws IOException {
+		final List<Price> block = new ArrayList<>(BLOCK_SIZE);
+		try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new HttpMessageNotReadableException("Expected a JSON array of prices.");
+			}
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				block.add(objectMapper.readValue(parser, Price.class));
+				if (block.size() == BLOCK_SIZE) {
+					blocks.accept(block);
+					block.clear();
+				}
+			}
+			if (parser.currentToken() != JsonToken.END_ARRAY) {
+				throw new HttpMessageNotReadableException("Expected a price or the end of the array.");
+			}
+		} catch (JsonProcessingException e) {
+			throw new HttpMessageNotReadableException("Invalid JSON of prices: " + e.getOriginalMessage(), e);
+		}
+		if (!block.isEmpty()) {
+			blocks.accept(block);
+		}
+	}
+
+	@Override
+	public PriceDecoder decoder(Consumer<List<Price>> blocks) {
+		try {
+			return new Decoder(objectMapper.getFactory().createNonBlockingByteArrayParser(), blocks);
+		} catch (IOException e) {
+			throw new IllegalStateException("Non blocking JSON parser is not available", e);
+		}
+	}
+
+	private final class Decoder implements PriceDecoder {
+		private final JsonParser parser;
+		private final ByteArrayFeeder feeder;
+		private final Consumer<List<Price>> blocks;
+		private final List<Price> block = new ArrayList<>(BLOCK_SIZE);
+		private TokenBuffer tokens;
+		private int depth;
+		private boolean started;
+		private boolean ended;
+
+		Decoder(JsonParser parser, Consumer<List<Price>> blocks) {
+			this.parser = parser;
+			this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+			this.blocks = blocks;
+		}
+
+		@Override
+		public void feed(byte[] bytes, int offset, int length) throws IOException {
+			feeder.feedInput(bytes, offset, offset + length);
+			parse();
+		}
+
+		@Override
+		public void end() throws IOException {
+			feeder.endOfInput();
+			parse();
+			parser.close();
+			if (!ended) {
+				throw new HttpMessageNotReadableException("Truncated JSON array of prices.");
+			}
+			if (!block.isEmpty()) {
+				blocks.accept(block);
+			}
+		}
+
+		private void parse() throws IOException {
+			try {
+				JsonToken token;
+				while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+					if (!started) {
+						if (token != JsonToken.START_ARRAY) {
+							throw new HttpMessageNotReadableException("Expected a JSON array of prices.");
+						}
+						started = true;
+					} else if (ended) {
+						throw new HttpMessageNotReadableException("Unexpected JSON after the array of prices.");
+					} else if (depth == 0 && token == JsonToken.END_ARRAY) {
+						ended = true;
+					} else if (depth == 0 && token != JsonToken.START_OBJECT) {
+						throw new HttpMessageNotReadableException("Expected a price or the end of the array.");
+					} else {
+						token(token);
+					}
+				}
+			} catch (JsonProcessingException e) {
+				throw new HttpMessageNotReadableException("Invalid JSON of prices: " + e.getOriginalMessage(), e);
+			}
+		}
+
+		private void token(JsonToken token) throws IOException {
+			if (depth == 0) {
+				tokens = new TokenBuffer(parser);
+			}
+			tokens.copyCurrentEvent(parser);
+			if (token.isStructStart()) {
+				depth++;
+			} else if (token.isStructEnd()) {
+				depth--;
+			}
+			if (depth == 0) {
+				block.add(objectMapper.readValue(tokens.asParser(objectMapper), Price.class));
+				if (block.size() == BLOCK_SIZE) {
+					blocks.accept(block);
+					block.clear();
+				}
+			}
+		}
+	}
+
+}
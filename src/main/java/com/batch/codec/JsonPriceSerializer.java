@@ -0,0 +1,46 @@
+package com.batch.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.batch.model.Price;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Writes a price as JSON with the UTF-8 bytes of its payload copied to the
+ * output as they are, only escaped, without decoding them to a String. The
+ * asOf is written by the serializer the mapper has for it.
+ * 
+ * @author faizanhussain
+ *
+ */
+public class JsonPriceSerializer extends StdSerializer<Price> {
+
+	private static final long serialVersionUID = -2795166447381369154L;
+
+	public JsonPriceSerializer() {
+		super(Price.class);
+	}
+
+	@Override
+	public void serialize(Price price, JsonGenerator generator, SerializerProvider provider) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("id", price.getId());
+		provider.defaultSerializeField("asOf", price.getAsOf(), generator);
+		final byte[] payload = price.getPayloadBytes();
+		if (payload == null) {
+			generator.writeNullField("payload");
+		} else if (generator.getOutputTarget() instanceof OutputStream) {
+			generator.writeFieldName("payload");
+			generator.writeUTF8String(payload, 0, payload.length);
+		} else {
+			// a generator on characters or a token buffer can't take the bytes
+			generator.writeStringField("payload", new String(payload, StandardCharsets.UTF_8));
+		}
+		generator.writeEndObject();
+	}
+
+}
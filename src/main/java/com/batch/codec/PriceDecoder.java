@@ -0,0 +1,32 @@
+package com.batch.codec;
+
+import java.io.IOException;
+
+/**
+ * Push side of a {@link PriceReader}: the bytes of a request are fed as they
+ * arrive, without a thread blocking on the stream, and complete prices are
+ * handed over in blocks.
+ * 
+ * @author faizanhussain
+ *
+ */
+public interface PriceDecoder {
+
+	/**
+	 * The bytes are not kept after the call returns.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	void feed(byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Hands over the last block and fails if the input ends within a price.
+	 * 
+	 * @throws IOException
+	 */
+	void end() throws IOException;
+
+}
@@ -0,0 +1,37 @@
+package com.batch.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.batch.model.Price;
+
+/**
+ * Reads prices from a stream incrementally and hands them over in blocks of
+ * bounded size, so a chunk of any size never has to be held in memory.
+ * 
+ * @author faizanhussain
+ *
+ */
+public interface PriceReader {
+
+	/**
+	 * The block is reused once the consumer returns, so it must not be kept.
+	 * 
+	 * @param in
+	 * @param blocks
+	 * @throws IOException
+	 */
+	void read(InputStream in, Consumer<List<Price>> blocks) throws IOException;
+
+	/**
+	 * Decoder for input which is fed as it arrives, with the same blocks as
+	 * {@link #read(InputStream, Consumer)}.
+	 * 
+	 * @param blocks
+	 * @return
+	 */
+	PriceDecoder decoder(Consumer<List<Price>> blocks);
+
+}
@@ -0,0 +1,116 @@
+package com.batch.component;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.batch.feed.PriceFeed;
+import com.batch.model.StagingTablePool;
+import com.batch.store.PriceStore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics of the batches and the price store, published through the actuator
+ * metrics endpoint. Counts are taken once per upload or commit, never per
+ * price.
+ * 
+ * @author faizanhussain
+ *
+ */
+@Component
+public class BatchMetrics {
+
+	private final Counter uploadedPrices;
+	private final Counter staleUploadedPrices;
+	private final Counter duplicateChunks;
+	private final Timer uploadTimer;
+	private final Timer commitTimer;
+	private final DistributionSummary coalescedCommits;
+
+	@Autowired
+	public BatchMetrics(MeterRegistry registry, PriceStore priceStore, InMemoryCache cache,
+			PriceFeed feed, PriceResponseCache responseCache, UploadPipeline uploadPipeline) {
+		uploadedPrices = Counter.builder("batch.prices.uploaded").description("Prices uploaded to open batches")
+				.register(registry);
+		staleUploadedPrices = Counter.builder("batch.prices.stale").tag("stage", "upload")
+				.description("Prices rejected because the batch has a newer price").register(registry);
+		duplicateChunks = Counter.builder("batch.chunks.duplicate")
+				.description("Numbered chunks acknowledged without an upload because they were applied").register(registry);
+		FunctionCounter.builder("batch.prices.stale", priceStore, PriceStore::getStaleCount).tag("stage", "commit")
+				.description("Prices rejected because the store has a newer price").register(registry);
+		FunctionCounter.builder("batch.prices.merged", priceStore, PriceStore::getMergedCount)
+				.description("Prices merged into the price store").register(registry);
+
+		uploadTimer = timer("batch.upload", "Time to merge an uploaded chunk into its batch", registry);
+		commitTimer = timer("batch.commit", "Time to commit a batch into the price store", registry);
+		coalescedCommits = DistributionSummary.builder("batch.commit.coalesced")
+				.description("Batches published together by a commit of the price store").register(registry);
+
+		Gauge.builder("batch.upload.queue.depth", uploadPipeline, UploadPipeline::getDepth)
+				.description("Blocks of uploaded prices waiting for a merge worker").register(registry);
+		FunctionCounter.builder("batch.upload.queue.rejected", uploadPipeline, UploadPipeline::getRejectedCount)
+				.description("Uploads failed because the queue of their batch stayed full").register(registry);
+		Gauge.builder("batch.open", cache, InMemoryCache::size).description("Batches neither committed nor discarded")
+				.register(registry);
+		FunctionCounter.builder("batch.reaped", cache, InMemoryCache::getReapedCount)
+				.description("Open batches discarded after the idle timeout").register(registry);
+		Gauge.builder("batch.prepared", cache, InMemoryCache::getPreparedCount)
+				.description("Prepared batches waiting for the outcome of their commit across the shards")
+				.register(registry);
+		FunctionCounter.builder("batch.prepared.expired", cache, InMemoryCache::getExpiredPreparedCount)
+				.description("Prepared batches discarded after the prepare timeout").register(registry);
+		FunctionCounter.builder("batch.reclaimed", cache, InMemoryCache::getDiscardedBytes).tag("cause", "discard")
+				.baseUnit("bytes").description("Estimated bytes staged by the discarded batches").register(registry);
+		FunctionCounter.builder("batch.reclaimed", cache, InMemoryCache::getReapedBytes).tag("cause", "reap")
+				.baseUnit("bytes").description("Estimated bytes staged by the reaped batches").register(registry);
+		Gauge.builder("batch.staging.pooled", cache.getStagingPool(), StagingTablePool::getPooledCount)
+				.description("Staging tables kept for new batches").register(registry);
+		FunctionCounter.builder("batch.staging.allocated", cache.getStagingPool(), StagingTablePool::getAllocatedCount)
+				.description("Staging tables allocated because none in the pool fit").register(registry);
+		Gauge.builder("batch.store.size", priceStore, PriceStore::size).description("Prices in the price store")
+				.register(registry);
+		FunctionCounter.builder("batch.response-cache", responseCache, PriceResponseCache::getHitCount).tag("result", "hit")
+				.description("Reads of a price served from the cached JSON").register(registry);
+		FunctionCounter.builder("batch.response-cache", responseCache, PriceResponseCache::getMissCount)
+				.tag("result", "miss").description("Reads of a price which wrote its JSON").register(registry);
+		Gauge.builder("batch.feed.subscribers", feed, PriceFeed::getSubscriberCount)
+				.description("Subscribers of the price feed").register(registry);
+		FunctionCounter.builder("batch.feed.overflows", feed, PriceFeed::getOverflowCount)
+				.description("Subscribers closed because they read slower than the commits").register(registry);
+	}
+
+	public void recordUpload(long startNanos, int prices, int stale) {
+		uploadTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		uploadedPrices.increment(prices);
+		staleUploadedPrices.increment(stale);
+	}
+
+	public void recordDuplicateChunk() {
+		duplicateChunks.increment();
+	}
+
+	public void recordCommit(long startNanos) {
+		commitTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param batches
+	 *            published by one commit of the price store
+	 */
+	public void recordCoalescedCommit(int batches) {
+		coalescedCommits.record(batches);
+	}
+
+	private static Timer timer(String name, String description, MeterRegistry registry) {
+		return Timer.builder(name).description(description).publishPercentiles(0.5, 0.95, 0.99)
+				.publishPercentileHistogram().register(registry);
+	}
+
+}
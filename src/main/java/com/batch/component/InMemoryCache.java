@@ -1,26 +1,37 @@
 package com.batch.component;
 
-import java.util.Collection;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
-import org.ehcache.Cache;
-import org.ehcache.CacheManager;
-import org.ehcache.config.CacheConfiguration;
-import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.CacheManagerBuilder;
-import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.batch.exception.BatchNotFoundException;
 import com.batch.model.Batch;
+import com.batch.model.ChunkStatus;
 import com.batch.model.Price;
+import com.batch.model.StagedPrices;
+import com.batch.model.StagingTablePool;
 
 /**
  * In memory cache. This class ensures that batches which are in processing
- * shouldn't be available before commit.
+ * shouldn't be available before commit. The open batches are kept in an
+ * {@link OpenBatchTable} until they are committed or discarded, or until they
+ * are idle for longer than the idle timeout and reaped. The parts of a batch
+ * committed across shards are kept prepared until the coordinator sends the
+ * outcome, or until the prepare timeout expires and they are discarded.
  * 
  * @author faizanhussain
  *
@@ -30,49 +41,284 @@ public class InMemoryCache {
 
 	private static final Logger log = LoggerFactory.getLogger(InMemoryCache.class);
 
-	private final Cache<Long, Batch> currentBatches;
+	private static final long MAX_REAP_PERIOD_SECONDS = 60;
+	/**
+	 * Largest size hint taken from a client, a larger batch grows its table. The
+	 * table of the hint is still small enough to be pooled.
+	 */
+	private static final int MAX_SIZE_HINT = 1 << 16;
+
+	private final OpenBatchTable currentBatches = new OpenBatchTable();
 	private final AtomicLong id = new AtomicLong(1);
+	private final LongAdder reapedBatches = new LongAdder();
+	private final LongAdder discardedBytes = new LongAdder();
+	private final LongAdder reapedBytes = new LongAdder();
+	private final Map<Long, Prepared> prepared = new ConcurrentHashMap<>();
+	private final LongAdder expiredPrepared = new LongAdder();
+	private ScheduledExecutorService reaper;
+	private StagingTablePool stagingPool = StagingTablePool.NONE;
+
+	@Value("${batch.staging.spill-threshold:0}")
+	private int spillThreshold;
+
+	@Value("${batch.staging.directory:${java.io.tmpdir}/batch-staging}")
+	private Path spillDirectory;
 
-	public InMemoryCache() {
-		log.info("Intializing cache.");
+	/**
+	 * Seconds after the last upload when an open batch is discarded, 0 keeps
+	 * them until they are committed or discarded.
+	 */
+	@Value("${batch.idle-timeout:0}")
+	private long idleTimeout;
 
-		final CacheConfiguration<Long, Batch> configuration = CacheConfigurationBuilder
-				.newCacheConfigurationBuilder(Long.class, Batch.class, ResourcePoolsBuilder.heap(10000)).build();
+	/**
+	 * Seconds after the prepare when a prepared batch whose outcome never came
+	 * is discarded, 0 keeps them until they are committed or discarded.
+	 */
+	@Value("${batch.shard.prepare-timeout:0}")
+	private long prepareTimeout;
+
+	/**
+	 * @param poolSize
+	 *            most staging tables kept for new batches, 0 keeps none
+	 */
+	@Value("${batch.staging.pool-size:0}")
+	void setPoolSize(int poolSize) {
+		stagingPool = new StagingTablePool(poolSize);
+	}
+
+	@PostConstruct
+	public void startReaper() {
+		if (idleTimeout <= 0 && prepareTimeout <= 0) {
+			return;
+		}
+		reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "batch-reaper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (idleTimeout > 0) {
+			final long period = reapPeriod(idleTimeout);
+			reaper.scheduleWithFixedDelay(this::reapIdleBatches, period, period, TimeUnit.SECONDS);
+			log.info("Batches idle for {} seconds are reaped every {} seconds.", idleTimeout, period);
+		}
+		if (prepareTimeout > 0) {
+			final long period = reapPeriod(prepareTimeout);
+			reaper.scheduleWithFixedDelay(this::expirePreparedBatches, period, period, TimeUnit.SECONDS);
+			log.info("Batches prepared for {} seconds are discarded every {} seconds.", prepareTimeout, period);
+		}
+	}
 
-		final CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
-				.withCache("batches", configuration).build();
+	private static long reapPeriod(long timeout) {
+		return Math.max(1, Math.min(MAX_REAP_PERIOD_SECONDS, timeout / 2));
+	}
 
-		cacheManager.init();
-		currentBatches = cacheManager.getCache("batches", Long.class, Batch.class);
-		log.info("Cache created.");
+	@PreDestroy
+	public void stopReaper() {
+		if (reaper != null) {
+			reaper.shutdownNow();
+		}
 	}
 
 	public Batch create() {
-		log.info("Creating new batch");
-		final Batch batch = new Batch(id.getAndIncrement());
-		currentBatches.put(batch.getId(), batch);
-		log.info("New batch created with id: {}", batch.getId());
+		return create(0);
+	}
+
+	/**
+	 * @param sizeHint
+	 *            expected number of distinct ids of the batch, 0 if unknown
+	 * @return new open batch with a staging table from the pool
+	 */
+	public Batch create(int sizeHint) {
+		final Batch batch = new Batch(id.getAndIncrement(), Math.max(0, Math.min(sizeHint, MAX_SIZE_HINT)),
+				spillThreshold, spillDirectory, stagingPool);
+		currentBatches.put(batch);
 		return batch;
 	}
 
-	public void save(long batchId, List<Price> prices) {
-		log.info("Save batch with id: {}", id);
-		final Batch batch = get(batchId);
-		batch.upload(prices);
-		log.info("Batch saved with id: {}", id);
+	/**
+	 * @param batchId
+	 * @param prices
+	 * @return number of prices which were older than the staged price
+	 */
+	public int save(long batchId, List<Price> prices) {
+		return get(batchId).upload(prices);
+	}
+
+	/**
+	 * @param batchId
+	 * @param sequence
+	 * @return false if the chunk was applied already, see
+	 *         {@link Batch#claimChunk(long)}
+	 */
+	public boolean claimChunk(long batchId, long sequence) {
+		return get(batchId).claimChunk(sequence);
+	}
+
+	/**
+	 * Nothing is left to finish if the batch was committed or discarded in the
+	 * meantime.
+	 * 
+	 * @param batchId
+	 * @param sequence
+	 * @param applied
+	 */
+	public void finishChunk(long batchId, long sequence, boolean applied) {
+		final Batch batch = currentBatches.get(batchId);
+		if (batch != null) {
+			batch.finishChunk(sequence, applied);
+		}
+	}
+
+	public ChunkStatus getChunkStatus(long batchId) {
+		return get(batchId).getChunkStatus();
+	}
+
+	/**
+	 * The batch is removed before it is closed, so only one commit, discard or
+	 * reap of a batch gets it.
+	 * 
+	 * @param batchId
+	 * @return latest prices of the batch to be closed after use
+	 */
+	public StagedPrices commit(long batchId) {
+		final Batch batch = currentBatches.remove(batchId);
+		if (batch == null) {
+			throw new BatchNotFoundException(batchId);
+		}
+		return batch.closeAndRefresh();
+	}
+
+	/**
+	 * Closes the batch and keeps its latest prices until
+	 * {@link #commitPrepared(long)} or {@link #discardPrepared(long)}.
+	 * 
+	 * @param batchId
+	 */
+	public void prepare(long batchId) {
+		prepared.put(batchId, new Prepared(commit(batchId)));
+	}
+
+	/**
+	 * @param batchId
+	 * @return latest prices of the prepared batch to be closed after use
+	 */
+	public StagedPrices commitPrepared(long batchId) {
+		final Prepared batch = prepared.remove(batchId);
+		if (batch == null) {
+			throw new BatchNotFoundException(batchId);
+		}
+		return batch.prices;
+	}
+
+	/**
+	 * @param batchId
+	 * @return false if the batch is not prepared
+	 */
+	public boolean discardPrepared(long batchId) {
+		final Prepared batch = prepared.remove(batchId);
+		if (batch == null) {
+			return false;
+		}
+		batch.prices.close();
+		return true;
+	}
+
+	/**
+	 * Discards the batch without reading its prices, see {@link Batch#discard()}.
+	 * 
+	 * @param batchId
+	 * @return estimated bytes the batch had staged
+	 */
+	public long discard(long batchId) {
+		final Batch batch = currentBatches.remove(batchId);
+		if (batch == null) {
+			throw new BatchNotFoundException(batchId);
+		}
+		final long bytes = batch.discard();
+		discardedBytes.add(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return number of batches which are neither committed nor discarded
+	 */
+	public int size() {
+		return currentBatches.size();
+	}
+
+	/**
+	 * @return number of prepared batches waiting for their outcome
+	 */
+	public int getPreparedCount() {
+		return prepared.size();
 	}
 
-	public Collection<Price> commit(long batchId) {
-		log.info("Committing batch with id: {}", id);
-		final Batch batch = get(batchId);
-		final Collection<Price> prices = batch.closeAndRefresh();
-		currentBatches.remove(batchId);
-		log.info("Batch committed with id: {}", id);
-		return prices;
+	/**
+	 * @return number of prepared batches discarded after the prepare timeout
+	 */
+	public long getExpiredPreparedCount() {
+		return expiredPrepared.sum();
+	}
+
+	/**
+	 * @return number of batches discarded because they were idle
+	 */
+	public long getReapedCount() {
+		return reapedBatches.sum();
+	}
+
+	public StagingTablePool getStagingPool() {
+		return stagingPool;
+	}
+
+	/**
+	 * @return estimated bytes staged by the discarded batches
+	 */
+	public long getDiscardedBytes() {
+		return discardedBytes.sum();
+	}
+
+	/**
+	 * @return estimated bytes staged by the reaped batches
+	 */
+	public long getReapedBytes() {
+		return reapedBytes.sum();
+	}
+
+	/**
+	 * Discard the batches without an upload for the idle timeout.
+	 */
+	void reapIdleBatches() {
+		final long idleSince = System.nanoTime() - TimeUnit.SECONDS.toNanos(idleTimeout);
+		currentBatches.forEach(batch -> {
+			if (batch.getLastAccessNanos() - idleSince < 0 && currentBatches.remove(batch.getId(), batch) != null) {
+				final long bytes = batch.discard();
+				reapedBatches.increment();
+				reapedBytes.add(bytes);
+				log.info("Batch: {} reaped after being idle for {} seconds, {} bytes reclaimed", batch.getId(),
+						idleTimeout, bytes);
+			}
+		});
+	}
+
+	/**
+	 * Discard the prepared batches whose outcome did not come within the
+	 * prepare timeout, as if the commit across the shards was aborted.
+	 */
+	void expirePreparedBatches() {
+		final long preparedSince = System.nanoTime() - TimeUnit.SECONDS.toNanos(prepareTimeout);
+		prepared.forEach((batchId, batch) -> {
+			if (batch.preparedNanos - preparedSince < 0 && prepared.remove(batchId, batch)) {
+				batch.prices.close();
+				expiredPrepared.increment();
+				log.warn("Batch: {} discarded, no outcome came within {} seconds of its prepare", batchId,
+						prepareTimeout);
+			}
+		});
 	}
 
 	private Batch get(long batchId) {
-		log.info("Get batch with id: {}", id);
 		final Batch batch = currentBatches.get(batchId);
 		if (batch == null) {
 			throw new BatchNotFoundException(batchId);
@@ -80,4 +326,13 @@ public class InMemoryCache {
 		return batch;
 	}
 
+	private static final class Prepared {
+		private final StagedPrices prices;
+		private final long preparedNanos = System.nanoTime();
+
+		Prepared(StagedPrices prices) {
+			this.prices = prices;
+		}
+	}
+
 }
@@ -0,0 +1,153 @@
+package com.batch.component;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import com.batch.model.Batch;
+
+/**
+ * Table of the open batches keyed by their primitive id. It is an open
+ * addressing table of the batches themselves, a slot matches when the id of
+ * its batch does, so a lookup neither boxes the id nor takes a lock. Puts and
+ * removes are serialized, a removed batch leaves a tombstone until the table
+ * is rebuilt. Batches are only ever removed explicitly.
+ * 
+ * @author faizanhussain
+ *
+ */
+public final class OpenBatchTable {
+
+	private static final int MIN_CAPACITY = 64;
+	private static final Batch TOMBSTONE = new Batch(Long.MIN_VALUE);
+
+	private volatile AtomicReferenceArray<Batch> slots = new AtomicReferenceArray<>(MIN_CAPACITY);
+	private int size;
+	private int tombstones;
+
+	/**
+	 * @param id
+	 * @return the open batch or null
+	 */
+	public Batch get(long id) {
+		final AtomicReferenceArray<Batch> table = slots;
+		final int mask = table.length() - 1;
+		for (int slot = slot(id, mask);; slot = (slot + 1) & mask) {
+			final Batch batch = table.get(slot);
+			if (batch == null) {
+				return null;
+			}
+			if (batch != TOMBSTONE && batch.getId() == id) {
+				return batch;
+			}
+		}
+	}
+
+	/**
+	 * @param batch
+	 *            with an id which is not in the table
+	 */
+	public synchronized void put(Batch batch) {
+		if ((size + tombstones + 1) * 4 > slots.length() * 3) {
+			rebuild(size + 1);
+		}
+		final AtomicReferenceArray<Batch> table = slots;
+		final int mask = table.length() - 1;
+		int slot = slot(batch.getId(), mask);
+		while (table.get(slot) != null && table.get(slot) != TOMBSTONE) {
+			slot = (slot + 1) & mask;
+		}
+		if (table.get(slot) == TOMBSTONE) {
+			tombstones--;
+		}
+		table.set(slot, batch);
+		size++;
+	}
+
+	/**
+	 * @param id
+	 * @return the removed batch or null
+	 */
+	public synchronized Batch remove(long id) {
+		return remove(id, null);
+	}
+
+	/**
+	 * @param id
+	 * @param expected
+	 *            batch to remove, null for any batch of the id
+	 * @return the removed batch or null
+	 */
+	public synchronized Batch remove(long id, Batch expected) {
+		final AtomicReferenceArray<Batch> table = slots;
+		final int mask = table.length() - 1;
+		for (int slot = slot(id, mask);; slot = (slot + 1) & mask) {
+			final Batch batch = table.get(slot);
+			if (batch == null) {
+				return null;
+			}
+			if (batch != TOMBSTONE && batch.getId() == id) {
+				if (expected != null && expected != batch) {
+					return null;
+				}
+				table.set(slot, TOMBSTONE);
+				tombstones++;
+				size--;
+				if (table.length() > MIN_CAPACITY && size * 8 < table.length()) {
+					rebuild(size);
+				}
+				return batch;
+			}
+		}
+	}
+
+	/**
+	 * Weakly consistent iteration over the open batches.
+	 * 
+	 * @param action
+	 */
+	public void forEach(Consumer<Batch> action) {
+		final AtomicReferenceArray<Batch> table = slots;
+		for (int slot = 0; slot < table.length(); slot++) {
+			final Batch batch = table.get(slot);
+			if (batch != null && batch != TOMBSTONE) {
+				action.accept(batch);
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Copy the batches to a new table at most half full and publish it. A
+	 * reader of the old table still finds every batch which was in it.
+	 */
+	private void rebuild(int expectedSize) {
+		final AtomicReferenceArray<Batch> table = slots;
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		final AtomicReferenceArray<Batch> rebuilt = new AtomicReferenceArray<>(capacity);
+		final int mask = capacity - 1;
+		for (int i = 0; i < table.length(); i++) {
+			final Batch batch = table.get(i);
+			if (batch != null && batch != TOMBSTONE) {
+				int slot = slot(batch.getId(), mask);
+				while (rebuilt.get(slot) != null) {
+					slot = (slot + 1) & mask;
+				}
+				rebuilt.set(slot, batch);
+			}
+		}
+		tombstones = 0;
+		slots = rebuilt;
+	}
+
+	private static int slot(long id, int mask) {
+		final long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.batch.component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.Price;
+import com.batch.store.PriceStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Cache of the JSON of the latest prices, keyed by the id and the version of
+ * the commit which merged the price. A commit which merges a newer price gives
+ * it a new version, so an entry of an older version is never served again and
+ * is replaced on the next read. Beyond the capacity an entry is evicted for
+ * every new one by a clock: the hand sweeps the slots of the entries, gives
+ * an entry read since it last passed a second chance and evicts the first one
+ * which was not read. A hit only sets the flag of its entry.
+ * 
+ * @author faizanhussain
+ *
+ */
+@Component
+public class PriceResponseCache {
+
+	private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+	private final PriceStore store;
+	private final ObjectWriter writer;
+	private final int capacity;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final Lock clockLock = new ReentrantLock();
+	/**
+	 * Id of the entry in each slot of the clock.
+	 */
+	private final long[] slots;
+	private int used;
+	private int hand;
+
+	/**
+	 * @param store
+	 * @param objectMapper
+	 * @param capacity
+	 *            number of prices to keep, 0 to not cache
+	 */
+	@Autowired
+	public PriceResponseCache(PriceStore store, ObjectMapper objectMapper,
+			@Value("${batch.response-cache.capacity:100000}") int capacity) {
+		this.store = store;
+		this.writer = objectMapper.writerFor(Price.class);
+		this.capacity = capacity;
+		this.slots = new long[Math.max(capacity, 0)];
+	}
+
+	/**
+	 * @param id
+	 * @return JSON of the latest price with its version or null if the id is
+	 *         unknown
+	 */
+	public Entry get(long id) {
+		long version = store.getVersion(id);
+		final Entry cached = entries.get(id);
+		if (cached != null && cached.version == version) {
+			hits.increment();
+			if (!cached.referenced) {
+				cached.referenced = true;
+			}
+			return cached;
+		}
+		misses.increment();
+		for (;;) {
+			if (version == 0) {
+				return null;
+			}
+			final Price price = store.get(id);
+			final long read = store.getVersion(id);
+			// versions only grow, so the price is the one of the version if it did not change in between
+			if (read == version) {
+				final Entry entry = new Entry(version, serialize(price));
+				if (capacity > 0) {
+					put(id, entry);
+				}
+				return entry;
+			}
+			version = read;
+		}
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	private void put(long id, Entry entry) {
+		clockLock.lock();
+		try {
+			final Entry previous = entries.get(id);
+			if (previous != null) {
+				// a newer version of a cached price keeps its slot
+				entry.slot = previous.slot;
+				entry.referenced = true;
+			} else {
+				entry.slot = used < capacity ? used++ : evict();
+				slots[entry.slot] = id;
+			}
+			entries.put(id, entry);
+		} finally {
+			clockLock.unlock();
+		}
+	}
+
+	/**
+	 * @return slot of the evicted entry
+	 */
+	private int evict() {
+		for (;;) {
+			final int slot = hand;
+			hand = slot + 1 == capacity ? 0 : slot + 1;
+			final Entry entry = entries.get(slots[slot]);
+			if (entry.referenced) {
+				entry.referenced = false;
+			} else {
+				entries.remove(slots[slot]);
+				return slot;
+			}
+		}
+	}
+
+	private byte[] serialize(Price price) {
+		try {
+			return writer.writeValueAsBytes(price);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Price " + price.getId() + " can't be written as JSON", e);
+		}
+	}
+
+	public static final class Entry {
+		private final long version;
+		private final byte[] json;
+		private int slot;
+		private volatile boolean referenced;
+
+		Entry(long version, byte[] json) {
+			this.version = version;
+			this.json = json;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return the cached bytes, which must not be changed
+		 */
+		public byte[] getJson() {
+			return json;
+		}
+	}
+
+}
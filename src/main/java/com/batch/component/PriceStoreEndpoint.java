@@ -0,0 +1,29 @@
+package com.batch.component;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import com.batch.store.PriceStore;
+import com.batch.store.StoreFootprint;
+
+/**
+ * Actuator endpoint reporting the memory footprint of the price store.
+ * 
+ * @author faizanhussain
+ *
+ */
+@Component
+@Endpoint(id = "pricestore")
+public class PriceStoreEndpoint {
+
+	@Autowired
+	private PriceStore priceStore;
+
+	@ReadOperation
+	public StoreFootprint footprint() {
+		return priceStore.getFootprint();
+	}
+
+}
@@ -1,10 +1,12 @@
 package com.batch.component;
 
+import javax.servlet.RequestDispatcher;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.core.Ordered;
 import org.springframework.stereotype.Component;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.support.DefaultHandlerExceptionResolver;
 
@@ -24,6 +26,12 @@ public class RESTExceptionResolver extends DefaultHandlerExceptionResolver {
 	@Override
 	public ModelAndView resolveException(HttpServletRequest request, HttpServletResponse response, Object handler,
 			Exception ex) {
+		final Object errorStatus = request.getAttribute(RequestDispatcher.ERROR_STATUS_CODE);
+		if (ex instanceof HttpMediaTypeNotAcceptableException && errorStatus instanceof Integer) {
+			// the error body can't be written in the accepted type, e.g. binary prices, keep the error status
+			response.setStatus((Integer) errorStatus);
+			return new ModelAndView();
+		}
 		logger.error("Exception occurred while processing the request. ", ex);
 		return super.resolveException(request, response, handler, ex);
 	}
@@ -0,0 +1,494 @@
+package com.batch.component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.batch.exception.UploadQueueFullException;
+import com.batch.model.Price;
+
+/**
+ * Pipeline between the reading of an upload and the merge of its prices into
+ * the batch. The blocks read from a request are put on a bounded queue of the
+ * batch and merged in their order by one of the merge workers, so the request
+ * thread reads the next block while the previous ones are merged. A request whose batch queue stays
+ * full for the offer timeout fails, which pushes back on the clients. An
+ * asynchronous upload never waits: its reader stops reading while the queue is
+ * full and a worker resumes it once there is room, and it learns from a
+ * callback when its blocks are merged. Without workers the blocks are merged
+ * by the request thread as they are read.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+public class UploadPipeline {
+
+	private static final Logger log = LoggerFactory.getLogger(UploadPipeline.class);
+
+	private final Map<Long, BatchQueue> queues = new ConcurrentHashMap<>();
+	private final AtomicInteger depth = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+	private ExecutorService workers;
+
+	/**
+	 * Merge workers shared by all the batches, 0 merges on the request thread.
+	 */
+	@Value("${batch.upload.pipeline.workers:0}")
+	private int workerCount;
+
+	/**
+	 * Blocks a batch may have waiting to be merged.
+	 */
+	@Value("${batch.upload.pipeline.queue-capacity:16}")
+	private int queueCapacity;
+
+	/**
+	 * Milliseconds a request waits for room in the queue of its batch.
+	 */
+	@Value("${batch.upload.pipeline.offer-timeout:30000}")
+	private long offerTimeout;
+
+	@PostConstruct
+	public void start() {
+		if (workerCount <= 0) {
+			return;
+		}
+		final AtomicInteger threads = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+			final Thread thread = new Thread(runnable, "batch-merge-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		log.info("Uploads are merged by {} workers with queues of {} blocks per batch.", workerCount, queueCapacity);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (workers != null) {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Start an upload to the batch, it has to be closed after its last block.
+	 *
+	 * @param batchId
+	 * @param merge
+	 *            merges a block of prices into the batch
+	 * @return consumer of the blocks of the upload
+	 */
+	public Upload open(long batchId, Consumer<List<Price>> merge) {
+		return open(batchId, merge, true);
+	}
+
+	/**
+	 * Start an upload to the batch which never waits for the queue, its reader
+	 * has to stop while {@link Upload#awaitRoom(Runnable)} and it has to be
+	 * closed with {@link Upload#close(Consumer)}.
+	 *
+	 * @param batchId
+	 * @param merge
+	 *            merges a block of prices into the batch
+	 * @return consumer of the blocks of the upload
+	 */
+	public Upload openAsync(long batchId, Consumer<List<Price>> merge) {
+		return open(batchId, merge, false);
+	}
+
+	private Upload open(long batchId, Consumer<List<Price>> merge, boolean blocking) {
+		if (workers == null) {
+			return new Upload(batchId, null, merge, blocking);
+		}
+		return new Upload(batchId, queues.compute(batchId, (id, queue) -> {
+			final BatchQueue opened = queue == null ? new BatchQueue(queueCapacity) : queue;
+			opened.uploads++;
+			return opened;
+		}), merge, blocking);
+	}
+
+	/**
+	 * Wait for the blocks queued for the batch to be merged, before it is
+	 * committed.
+	 *
+	 * @param batchId
+	 */
+	public void awaitMerged(long batchId) {
+		final BatchQueue queue = queues.get(batchId);
+		if (queue != null) {
+			queue.awaitMerged();
+		}
+	}
+
+	public boolean isEnabled() {
+		return workers != null;
+	}
+
+	/**
+	 * @return blocks waiting to be merged across all the batches
+	 */
+	public int getDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * @return number of uploads failed because the queue of their batch was
+	 *         full
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private void release(long batchId) {
+		queues.computeIfPresent(batchId, (id, queue) -> --queue.uploads == 0 ? null : queue);
+	}
+
+	/**
+	 * Blocks of a batch waiting to be merged. One worker at a time drains the
+	 * queue, so the blocks of a batch are merged one after the other in the
+	 * order they were queued and the workers are shared across the batches.
+	 */
+	private final class BatchQueue {
+		private final Deque<Block> blocks = new ArrayDeque<>();
+		private final int capacity;
+		/**
+		 * Blocks queued or being merged.
+		 */
+		private int pending;
+		/**
+		 * Whether a worker is draining the queue.
+		 */
+		private boolean draining;
+		/**
+		 * Readers of asynchronous uploads stopped until the queue has room.
+		 */
+		private final List<Runnable> waitingForRoom = new ArrayList<>();
+		/**
+		 * Open uploads, guarded by the map of the queues.
+		 */
+		private int uploads;
+
+		BatchQueue(int capacity) {
+			this.capacity = capacity;
+		}
+
+		synchronized boolean offer(Block block) throws InterruptedException {
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeout);
+			while (blocks.size() >= capacity) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			add(block);
+			return true;
+		}
+
+		/**
+		 * Queue the block even if the queue is full.
+		 *
+		 * @param block
+		 */
+		synchronized void add(Block block) {
+			blocks.add(block);
+			pending++;
+			depth.incrementAndGet();
+			if (!draining) {
+				draining = true;
+				workers.execute(this::drain);
+			}
+		}
+
+		/**
+		 * @param resume
+		 *            run by a worker once the queue has room
+		 * @return false if the queue has room already and the resume is not run
+		 */
+		synchronized boolean awaitRoom(Runnable resume) {
+			if (blocks.size() < capacity) {
+				return false;
+			}
+			waitingForRoom.add(resume);
+			return true;
+		}
+
+		private void drain() {
+			Block block;
+			while ((block = next()) != null) {
+				try {
+					block.merge();
+				} finally {
+					merged();
+				}
+			}
+		}
+
+		/**
+		 * @return next block to merge, null once the queue is empty and the
+		 *         worker has to stop draining it
+		 */
+		private Block next() {
+			final Block block;
+			final List<Runnable> resumed;
+			synchronized (this) {
+				block = blocks.poll();
+				if (block == null) {
+					draining = false;
+					return null;
+				}
+				depth.decrementAndGet();
+				// a request waits for room
+				notifyAll();
+				if (waitingForRoom.isEmpty() || blocks.size() >= capacity) {
+					return block;
+				}
+				resumed = new ArrayList<>(waitingForRoom);
+				waitingForRoom.clear();
+			}
+			// the readers go on on other workers, this one merges
+			resumed.forEach(workers::execute);
+			return block;
+		}
+
+		private synchronized void merged() {
+			if (--pending == 0) {
+				notifyAll();
+			}
+		}
+
+		synchronized void awaitMerged() {
+			boolean interrupted = false;
+			while (pending > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static final class Block {
+		private final Upload upload;
+		private final List<Price> prices;
+
+		Block(Upload upload, List<Price> prices) {
+			this.upload = upload;
+			this.prices = prices;
+		}
+
+		void merge() {
+			upload.merge(prices);
+		}
+	}
+
+	/**
+	 * Blocks of one request. The blocks handed over are copied, the reader
+	 * reuses them. The first failure of a merge fails the next block and the
+	 * close, the blocks queued after it are dropped. An upload is closed once,
+	 * either way.
+	 */
+	public final class Upload implements Consumer<List<Price>>, AutoCloseable {
+		private final long batchId;
+		private final BatchQueue queue;
+		private final Consumer<List<Price>> merge;
+		private final boolean blocking;
+		private int pending;
+		private RuntimeException failure;
+		private boolean reported;
+		private boolean closed;
+		/**
+		 * Callback of an asynchronous close waiting for the blocks.
+		 */
+		private Consumer<RuntimeException> onMerged;
+
+		Upload(long batchId, BatchQueue queue, Consumer<List<Price>> merge, boolean blocking) {
+			this.batchId = batchId;
+			this.queue = queue;
+			this.merge = merge;
+			this.blocking = blocking;
+		}
+
+		/**
+		 * @throws UploadQueueFullException
+		 *             if the queue of the batch is full for the offer timeout,
+		 *             an asynchronous upload queues the block anyway
+		 */
+		@Override
+		public void accept(List<Price> prices) {
+			if (queue == null) {
+				merge.accept(prices);
+				return;
+			}
+			synchronized (this) {
+				if (failure != null) {
+					reported = true;
+					throw failure;
+				}
+				pending++;
+			}
+			boolean queued = false;
+			try {
+				final Block block = new Block(this, new ArrayList<>(prices));
+				if (blocking) {
+					queued = queue.offer(block);
+				} else {
+					queue.add(block);
+					queued = true;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the upload queue of the batch " + batchId,
+						e);
+			} finally {
+				if (!queued) {
+					done(null);
+				}
+			}
+			if (!queued) {
+				rejected.increment();
+				throw new UploadQueueFullException(batchId);
+			}
+		}
+
+		/**
+		 * Whether the reader of an asynchronous upload has to stop reading.
+		 *
+		 * @param resume
+		 *            run by a merge worker once the queue of the batch has room
+		 * @return true if the queue of the batch is full, the resume is run later
+		 */
+		public boolean awaitRoom(Runnable resume) {
+			return queue != null && queue.awaitRoom(resume);
+		}
+
+		/**
+		 * Wait for the blocks of the upload to be merged.
+		 *
+		 * @throws RuntimeException
+		 *             the first failure of a merge, unless a block failed with
+		 *             it already
+		 */
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (queue == null || closed) {
+					return;
+				}
+				closed = true;
+			}
+			try {
+				synchronized (this) {
+					boolean interrupted = false;
+					while (pending > 0) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+					if (failure != null && !reported) {
+						throw failure;
+					}
+				}
+			} finally {
+				release(batchId);
+			}
+		}
+
+		/**
+		 * Close the upload without waiting, the callback gets the outcome once
+		 * the blocks of the upload are merged, on the thread of the last merge
+		 * or on this one.
+		 *
+		 * @param merged
+		 *            gets the first failure of a merge, unless a block failed
+		 *            with it already, or null
+		 */
+		public void close(Consumer<RuntimeException> merged) {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (pending > 0) {
+					onMerged = merged;
+					return;
+				}
+			}
+			closed(merged);
+		}
+
+		private void closed(Consumer<RuntimeException> merged) {
+			final RuntimeException error;
+			synchronized (this) {
+				error = reported ? null : failure;
+			}
+			if (queue != null) {
+				release(batchId);
+			}
+			merged.accept(error);
+		}
+
+		private void merge(List<Price> prices) {
+			final boolean failed;
+			synchronized (this) {
+				failed = failure != null;
+			}
+			if (failed) {
+				done(null);
+				return;
+			}
+			RuntimeException error = null;
+			try {
+				merge.accept(prices);
+			} catch (RuntimeException e) {
+				error = e;
+			}
+			done(error);
+		}
+
+		private void done(RuntimeException error) {
+			final Consumer<RuntimeException> merged;
+			synchronized (this) {
+				if (error != null && failure == null) {
+					failure = error;
+				}
+				if (--pending > 0) {
+					return;
+				}
+				notifyAll();
+				merged = onMerged;
+				onMerged = null;
+			}
+			if (merged != null) {
+				closed(merged);
+			}
+		}
+	}
+
+}
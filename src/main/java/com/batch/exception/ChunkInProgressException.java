@@ -0,0 +1,22 @@
+package com.batch.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Throw this exception when a numbered chunk is uploaded while another upload
+ * of the same chunk is in flight. The client retries it once the other upload
+ * is done or failed.
+ *
+ * @author faizanhussain
+ *
+ */
+@ResponseStatus(value = HttpStatus.CONFLICT)
+public class ChunkInProgressException extends RuntimeException {
+
+	private static final long serialVersionUID = -2635196540311270862L;
+
+	public ChunkInProgressException(long batchId, long sequence) {
+		super(String.format("The chunk %s of the batch %s is being uploaded.", sequence, batchId));
+	}
+}
@@ -0,0 +1,21 @@
+package com.batch.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Throw this exception when a past price is requested but the history of the
+ * prices is not kept.
+ * 
+ * @author faizanhussain
+ *
+ */
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class HistoryNotEnabledException extends RuntimeException {
+
+	private static final long serialVersionUID = 4410270319386621357L;
+
+	public HistoryNotEnabledException() {
+		super("The price history is not enabled, set batch.history.enabled=true.");
+	}
+}
@@ -0,0 +1,26 @@
+package com.batch.exception;
+
+import java.time.LocalDateTime;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.batch.model.EpochNanos;
+
+/**
+ * Throw this exception when an asOf can't be kept as nanoseconds since the
+ * epoch.
+ *
+ * @author faizanhussain
+ *
+ */
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class InvalidAsOfException extends RuntimeException {
+
+	private static final long serialVersionUID = -3207164918263057911L;
+
+	public InvalidAsOfException(LocalDateTime asOf) {
+		super(String.format("The asOf %s is out of range, it has to be between %s and %s.", asOf,
+				EpochNanos.MIN, EpochNanos.MAX));
+	}
+}
@@ -0,0 +1,21 @@
+package com.batch.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Throw this exception when the sequence number of a chunk is out of range.
+ *
+ * @author faizanhussain
+ *
+ */
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class InvalidChunkException extends RuntimeException {
+
+	private static final long serialVersionUID = 7308167912584409176L;
+
+	public InvalidChunkException(long batchId, long sequence, int maxChunks) {
+		super(String.format("The chunk %s of the batch %s is invalid, the chunks are numbered from 0 to %s.", sequence,
+				batchId, maxChunks - 1));
+	}
+}
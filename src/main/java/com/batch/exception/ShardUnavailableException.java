@@ -0,0 +1,21 @@
+package com.batch.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Throw this exception when a request to another shard of a sharded
+ * deployment fails.
+ *
+ * @author faizanhussain
+ *
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ShardUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = -2371564129847203517L;
+
+	public ShardUnavailableException(String node, Throwable cause) {
+		super(String.format("The shard at %s is unavailable.", node), cause);
+	}
+}
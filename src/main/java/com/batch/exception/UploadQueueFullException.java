@@ -0,0 +1,21 @@
+package com.batch.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Throw this exception when the prices of an upload can't be queued because
+ * the merges of the batch fall behind. The client retries the upload later.
+ *
+ * @author faizanhussain
+ *
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class UploadQueueFullException extends RuntimeException {
+
+	private static final long serialVersionUID = -5106427870321453310L;
+
+	public UploadQueueFullException(long batchId) {
+		super(String.format("The upload queue of the batch %s is full, retry the upload later.", batchId));
+	}
+}
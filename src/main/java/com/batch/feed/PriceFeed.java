@@ -0,0 +1,113 @@
+package com.batch.feed;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.batch.model.Price;
+import com.batch.store.CommitListener;
+import com.batch.store.PriceStore;
+
+/**
+ * Feed of the committed prices to the subscribers as server sent events. The
+ * committer only appends the merged prices of a commit to the buffer of every
+ * subscriber, they are filtered and sent by a sender thread of the subscriber,
+ * so a slow subscriber never stalls a commit. A subscriber whose buffer would
+ * hold more than the buffer size of commits, whatever their number of prices,
+ * is sent an overflow event and closed, it has to read the prices again and
+ * subscribe again.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+public class PriceFeed implements CommitListener {
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	private final int bufferSize;
+	private final long timeout;
+	private final ExecutorService senders;
+	private final LongAdder overflows = new LongAdder();
+
+	/**
+	 * @param bufferSize
+	 *            commits a subscriber may have waiting to be sent
+	 * @param timeout
+	 *            in milliseconds after which a subscription is closed
+	 * @param store
+	 */
+	@Autowired
+	public PriceFeed(@Value("${batch.feed.buffer-commits:100}") int bufferSize,
+			@Value("${batch.feed.timeout:3600000}") long timeout, PriceStore store) {
+		this.bufferSize = bufferSize;
+		this.timeout = timeout;
+		final AtomicInteger threads = new AtomicInteger();
+		this.senders = Executors.newCachedThreadPool(runnable -> {
+			final Thread thread = new Thread(runnable, "price-feed-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		store.addListener(this);
+	}
+
+	/**
+	 * @param ids
+	 *            ids of the prices to send, null or empty for all
+	 * @return emitter of the events of the subscription
+	 */
+	public SseEmitter subscribe(Set<Long> ids) {
+		final SseEmitter emitter = new SseEmitter(timeout);
+		final Subscriber subscriber = new Subscriber(emitter, ids == null || ids.isEmpty() ? null : ids, bufferSize,
+				senders, subscribers::remove);
+		emitter.onCompletion(subscriber::close);
+		emitter.onTimeout(subscriber::close);
+		emitter.onError(error -> subscriber.close());
+		subscribers.add(subscriber);
+		return emitter;
+	}
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	/**
+	 * @return number of subscribers closed because their buffer overflowed
+	 */
+	public long getOverflowCount() {
+		return overflows.sum();
+	}
+
+	@Override
+	public boolean isListening() {
+		return !subscribers.isEmpty();
+	}
+
+	@Override
+	public void onCommit(long version, List<Price> merged) {
+		for (Subscriber subscriber : subscribers) {
+			if (!subscriber.offer(version, merged)) {
+				overflows.increment();
+			}
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		for (Subscriber subscriber : subscribers) {
+			subscriber.complete();
+		}
+		senders.shutdownNow();
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.batch.feed;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.batch.model.Price;
+
+/**
+ * Subscription to the {@link PriceFeed} with a bounded buffer of the commits
+ * to send. Commits are offered by the committer and drained by at most one
+ * sender at a time, which filters the prices of the subscribed ids. The buffer
+ * holds the merged prices of a commit as the store handed them over, shared by
+ * all the subscribers.
+ *
+ * @author faizanhussain
+ *
+ */
+final class Subscriber {
+
+	static final String COMMIT_EVENT = "commit";
+	static final String OVERFLOW_EVENT = "overflow";
+
+	private final SseEmitter emitter;
+	private final Set<Long> ids;
+	private final int bufferSize;
+	private final Executor senders;
+	private final Consumer<Subscriber> onClose;
+	private final Queue<Commit> buffer = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger buffered = new AtomicInteger();
+	private final AtomicBoolean sending = new AtomicBoolean();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	Subscriber(SseEmitter emitter, Set<Long> ids, int bufferSize, Executor senders, Consumer<Subscriber> onClose) {
+		this.emitter = emitter;
+		this.ids = ids;
+		this.bufferSize = bufferSize;
+		this.senders = senders;
+		this.onClose = onClose;
+	}
+
+	/**
+	 * Called by the committer, never blocks and does not read the prices.
+	 * 
+	 * @param version
+	 * @param merged
+	 *            not changed after, the buffer keeps it
+	 * @return false if the buffer overflowed
+	 */
+	boolean offer(long version, List<Price> merged) {
+		if (closed.get() || merged.isEmpty()) {
+			return true;
+		}
+		final boolean overflow = buffered.get() >= bufferSize;
+		if (overflow) {
+			// the last commit this subscriber may have seen completely is the previous one
+			close();
+			buffer.add(new Commit(version - 1, null));
+		} else {
+			buffered.incrementAndGet();
+			buffer.add(new Commit(version, merged));
+		}
+		if (sending.compareAndSet(false, true)) {
+			senders.execute(this::send);
+		}
+		return !overflow;
+	}
+
+	void complete() {
+		close();
+		emitter.complete();
+	}
+
+	void close() {
+		if (closed.compareAndSet(false, true)) {
+			onClose.accept(this);
+		}
+	}
+
+	private List<Price> filter(List<Price> merged) {
+		final List<Price> prices = new ArrayList<>();
+		for (Price price : merged) {
+			if (ids.contains(price.getId())) {
+				prices.add(price);
+			}
+		}
+		return prices;
+	}
+
+	private void send() {
+		do {
+			Commit commit;
+			while ((commit = buffer.poll()) != null) {
+				try {
+					if (commit.prices == null) {
+						emitter.send(SseEmitter.event().name(OVERFLOW_EVENT).data(commit, MediaType.APPLICATION_JSON));
+						emitter.complete();
+						return;
+					}
+					final List<Price> prices = ids == null ? commit.prices : filter(commit.prices);
+					if (!prices.isEmpty()) {
+						emitter.send(SseEmitter.event().id(String.valueOf(commit.version)).name(COMMIT_EVENT)
+								.data(prices == commit.prices ? commit : new Commit(commit.version, prices),
+										MediaType.APPLICATION_JSON));
+					}
+				} catch (IOException | IllegalStateException e) {
+					// the subscriber is gone or the emitter is already complete
+					close();
+					buffer.clear();
+					return;
+				}
+				buffered.decrementAndGet();
+			}
+			sending.set(false);
+		} while (!buffer.isEmpty() && sending.compareAndSet(false, true));
+	}
+
+	/**
+	 * Data of an event, prices is null for an overflow.
+	 */
+	static final class Commit {
+		private final long version;
+		private final List<Price> prices;
+
+		Commit(long version, List<Price> prices) {
+			this.version = version;
+			this.prices = prices;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public List<Price> getPrices() {
+			return prices;
+		}
+	}
+
+}
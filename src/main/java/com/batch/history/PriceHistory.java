@@ -0,0 +1,186 @@
+package com.batch.history;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.EpochNanos;
+import com.batch.model.Price;
+import com.batch.store.CommitListener;
+import com.batch.store.PriceStore;
+
+/**
+ * History of the prices published by the commits to the store, for reading the
+ * price of an id as of an instant or as of a committed version. Every id has a
+ * chain of the prices which were merged for it, in the order of the versions.
+ * The store only merges a price newer than the stored one, so a chain is
+ * ordered by asOf as well and both reads are a binary search.
+ * <p>
+ * The retention is measured from the commit of a price, not from its asOf. A
+ * chain keeps the prices committed before the retention only as long as it has
+ * room for them, when it grows they are dropped except the last one, which is
+ * still the price as of the start of the retention.
+ * <p>
+ * The history is kept in memory. With the journal, it is rebuilt on recovery
+ * from the snapshot, which holds only the latest price of every id, and the
+ * commits replayed after it. The recovered commits are published under new
+ * versions, so a version from before a restart does not name the same commit.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.history.enabled", havingValue = "true")
+public class PriceHistory implements CommitListener {
+
+	private static final int MIN_CAPACITY = 4;
+
+	private final Map<Long, Chain> chains = new ConcurrentHashMap<>();
+	private final long retentionNanos;
+	private final LongSupplier clock;
+
+	/**
+	 * @param retention
+	 *            in seconds, 0 keeps all the prices
+	 * @param store
+	 */
+	@Autowired
+	public PriceHistory(@Value("${batch.history.retention:0}") long retention, PriceStore store) {
+		this(retention, store, System::nanoTime);
+	}
+
+	/**
+	 * @param retention
+	 *            in seconds, 0 keeps all the prices
+	 * @param store
+	 * @param clock
+	 *            nanos of the commits
+	 */
+	PriceHistory(long retention, PriceStore store, LongSupplier clock) {
+		this.retentionNanos = TimeUnit.SECONDS.toNanos(retention);
+		this.clock = clock;
+		store.addListener(this);
+	}
+
+	@Override
+	public void onCommit(long version, List<Price> merged) {
+		final long committed = clock.getAsLong();
+		final long cutoff = retentionNanos > 0 ? committed - retentionNanos : Long.MIN_VALUE;
+		for (Price price : merged) {
+			chains.computeIfAbsent(price.getId(), id -> new Chain()).append(EpochNanos.of(price.getAsOf()), version,
+					committed, price, cutoff);
+		}
+	}
+
+	/**
+	 * @param id
+	 * @param asOf
+	 * @return the latest price for the id with an asOf not after the instant, or
+	 *         null
+	 */
+	public Price get(long id, LocalDateTime asOf) {
+		final Chain chain = chains.get(id);
+		if (chain == null) {
+			return null;
+		}
+		final Segment segment = chain.segment;
+		return segment.floor(segment.asOf, EpochNanos.of(asOf));
+	}
+
+	/**
+	 * @param id
+	 * @param version
+	 * @return the price for the id in the committed version, or null
+	 */
+	public Price get(long id, long version) {
+		final Chain chain = chains.get(id);
+		if (chain == null) {
+			return null;
+		}
+		final Segment segment = chain.segment;
+		return segment.floor(segment.versions, version);
+	}
+
+	/**
+	 * Prices of an id, appended by the single committer and read without locks.
+	 * A segment is only appended to, when it is full the chain publishes a new
+	 * one.
+	 */
+	private static final class Chain {
+		private volatile Segment segment = new Segment(MIN_CAPACITY);
+
+		void append(long asOf, long version, long committed, Price price, long cutoff) {
+			final Segment current = segment;
+			final int size = current.size;
+			if (size < current.prices.length) {
+				current.set(size, asOf, version, committed, price);
+				current.size = size + 1;
+				return;
+			}
+			// keep the last price before the cutoff, it is the price as of the cutoff
+			int from = 0;
+			while (from + 1 < size && current.committed[from + 1] - cutoff <= 0) {
+				from++;
+			}
+			final int retained = size - from;
+			final Segment next = new Segment(retained * 2 > current.prices.length ? retained * 2
+					: Math.max(MIN_CAPACITY, current.prices.length));
+			System.arraycopy(current.asOf, from, next.asOf, 0, retained);
+			System.arraycopy(current.versions, from, next.versions, 0, retained);
+			System.arraycopy(current.committed, from, next.committed, 0, retained);
+			System.arraycopy(current.prices, from, next.prices, 0, retained);
+			next.set(retained, asOf, version, committed, price);
+			next.size = retained + 1;
+			segment = next;
+		}
+	}
+
+	private static final class Segment {
+		private final long[] asOf;
+		private final long[] versions;
+		private final long[] committed;
+		private final Price[] prices;
+		private volatile int size;
+
+		Segment(int capacity) {
+			asOf = new long[capacity];
+			versions = new long[capacity];
+			committed = new long[capacity];
+			prices = new Price[capacity];
+		}
+
+		void set(int index, long asOf, long version, long committed, Price price) {
+			this.asOf[index] = asOf;
+			this.versions[index] = version;
+			this.committed[index] = committed;
+			this.prices[index] = price;
+		}
+
+		/**
+		 * @return the price of the greatest key not greater than the key, the
+		 *         last one of equal keys
+		 */
+		Price floor(long[] keys, long key) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				if (keys[mid] <= key) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return high < 0 ? null : prices[high];
+		}
+	}
+
+}
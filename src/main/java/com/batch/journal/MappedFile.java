@@ -0,0 +1,63 @@
+package com.batch.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only memory map of a file through a moving window, so files bigger than
+ * a single mapping can be read sequentially.
+ *
+ * @author faizanhussain
+ *
+ */
+final class MappedFile implements Closeable {
+
+	private static final long WINDOW_SIZE = 256 << 20;
+
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	MappedFile(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @param offset
+	 *            in the file
+	 * @param length
+	 *            bytes which have to be mapped
+	 * @return buffer positioned at the offset with at least the length
+	 *         remaining, or null if the file ends before
+	 * @throws IOException
+	 */
+	ByteBuffer at(long offset, int length) throws IOException {
+		if (offset + length > size) {
+			return null;
+		}
+		if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+			window = channel.map(MapMode.READ_ONLY, offset, Math.max(length, Math.min(WINDOW_SIZE, size - offset)));
+			windowStart = offset;
+		}
+		window.limit(window.capacity()).position((int) (offset - windowStart));
+		return window;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,507 @@
+package com.batch.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.batch.codec.BinaryPriceFormat;
+import com.batch.history.PriceHistory;
+import com.batch.model.Price;
+import com.batch.store.PriceSnapshot;
+import com.batch.store.PriceStore;
+
+/**
+ * Write ahead journal of the committed prices. A commit is appended to the
+ * current segment and forced to disk before it is published to the store, all
+ * the commits which are waiting while the disk is forced are written with the
+ * next force. The commits are published in the order they were appended, so
+ * the store has the versions the replay gives them. A record of a segment is
+ *
+ * <pre>
+ * length: int | crc32 of the body: int | body: price count: int | prices in the {@link BinaryPriceFormat}
+ * </pre>
+ *
+ * A snapshot of the store is written periodically, after which the segments it
+ * covers are deleted. On startup the snapshot is memory mapped into the store
+ * and the segments after it are replayed, up to the first incomplete record.
+ * The segments after an incomplete record are deleted, their commits would be
+ * published without the ones lost before them.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.journal.enabled", havingValue = "true")
+public class PriceJournal {
+
+	private static final Logger log = LoggerFactory.getLogger(PriceJournal.class);
+
+	private static final String SNAPSHOT = "prices.snapshot";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int SNAPSHOT_MAGIC = 0x50524353;
+	private static final int SNAPSHOT_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+	private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	private final Path directory;
+	private final long snapshotInterval;
+	private final PriceStore store;
+
+	/**
+	 * Injected so the history listens to the recovered commits.
+	 */
+	@Autowired(required = false)
+	private PriceHistory history;
+
+	/**
+	 * A commit holds the read lock until it is published, so a snapshot taken
+	 * under the write lock has every commit of the segments it covers.
+	 */
+	private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+	private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+	private final Thread writer = new Thread(this::write, "price-journal");
+	private final ScheduledExecutorService snapshots = Executors
+			.newSingleThreadScheduledExecutor(task -> new Thread(task, "price-snapshot"));
+	private FileChannel channel;
+	private long segment;
+	private volatile boolean dirty;
+	private long replayedCommits;
+
+	/**
+	 * Guards the sequence numbers of the appended and of the published commits.
+	 */
+	private final Object order = new Object();
+	private long appended;
+	private long published;
+
+	@Autowired
+	public PriceJournal(@Value("${batch.journal.directory:journal}") String directory,
+			@Value("${batch.journal.snapshot-interval:600}") long snapshotInterval, PriceStore store) {
+		this.directory = Paths.get(directory);
+		this.snapshotInterval = snapshotInterval;
+		this.store = store;
+		writer.setDaemon(true);
+	}
+
+	/**
+	 * Loads the snapshot and replays the journal into the store, then opens a
+	 * new segment for the commits.
+	 *
+	 * @throws IOException
+	 */
+	@PostConstruct
+	public void recover() throws IOException {
+		final long start = System.nanoTime();
+		Files.createDirectories(directory);
+
+		long firstSegment = 0;
+		final Path snapshot = directory.resolve(SNAPSHOT);
+		if (Files.exists(snapshot)) {
+			firstSegment = loadSnapshot(snapshot);
+		}
+		final int snapshotPrices = store.size();
+
+		long lastSegment = firstSegment - 1;
+		boolean complete = true;
+		for (Path path : segments().values()) {
+			final long number = segmentNumber(path);
+			if (number < firstSegment) {
+				Files.delete(path);
+			} else if (!complete) {
+				log.warn("Deleting the price journal {} after an incomplete record", path);
+				Files.delete(path);
+			} else {
+				complete = replay(path);
+				lastSegment = number;
+			}
+		}
+		openSegment(lastSegment + 1);
+
+		writer.start();
+		if (snapshotInterval > 0) {
+			snapshots.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotInterval, snapshotInterval,
+					TimeUnit.SECONDS);
+		}
+		log.info("Recovered {} prices from the snapshot and {} commits from the journal in {} ms", snapshotPrices,
+				replayedCommits, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * Appends the prices to the journal and publishes them to the store once
+	 * they are on disk and the commits appended before are published.
+	 *
+	 * @param prices
+	 * @return the published version
+	 */
+	public long commit(Iterable<Price> prices) {
+		final Append append = new Append(encode(prices));
+		commitLock.readLock().lock();
+		try {
+			synchronized (order) {
+				append.sequence = ++appended;
+				appends.add(append);
+			}
+			awaitTurn(append.sequence);
+			try {
+				await(append.done);
+				dirty = true;
+				return store.commit(prices);
+			} finally {
+				// a failed commit still hands the turn over
+				synchronized (order) {
+					published = append.sequence;
+					order.notifyAll();
+				}
+			}
+		} finally {
+			commitLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the store and deletes the segments it covers.
+	 *
+	 * @throws IOException
+	 */
+	public void snapshot() throws IOException {
+		final long firstSegment;
+		final PriceSnapshot snapshot;
+		commitLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				firstSegment = segment + 1;
+				openSegment(firstSegment);
+			}
+			snapshot = store.snapshot();
+			dirty = false;
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+
+		try (PriceSnapshot prices = snapshot) {
+			writeSnapshot(prices, firstSegment);
+		}
+		for (Path path : segments().headMap(firstSegment).values()) {
+			Files.delete(path);
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		snapshots.shutdownNow();
+		writer.interrupt();
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			channel.close();
+		}
+	}
+
+	private void scheduledSnapshot() {
+		if (!dirty) {
+			return;
+		}
+		final long start = System.nanoTime();
+		try {
+			snapshot();
+			log.info("Price snapshot written in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		} catch (IOException | RuntimeException e) {
+			log.error("Price snapshot failed", e);
+		}
+	}
+
+	/**
+	 * Group commit: everything queued while the disk was forced is written and
+	 * forced together.
+	 */
+	private void write() {
+		final List<Append> batch = new ArrayList<>();
+		while (true) {
+			try {
+				batch.add(appends.take());
+			} catch (InterruptedException e) {
+				failPending(new IOException("Price journal is closed."));
+				return;
+			}
+			appends.drainTo(batch);
+			try {
+				synchronized (this) {
+					for (Append append : batch) {
+						while (append.record.hasRemaining()) {
+							channel.write(append.record);
+						}
+					}
+					channel.force(false);
+					if (channel.position() > SEGMENT_SIZE) {
+						openSegment(segment + 1);
+					}
+				}
+				batch.forEach(append -> append.done.complete(null));
+			} catch (IOException e) {
+				log.error("Price journal write failed", e);
+				batch.forEach(append -> append.done.completeExceptionally(e));
+			}
+			batch.clear();
+		}
+	}
+
+	private void failPending(IOException e) {
+		final List<Append> pending = new ArrayList<>();
+		appends.drainTo(pending);
+		pending.forEach(append -> append.done.completeExceptionally(e));
+	}
+
+	/**
+	 * Waits without giving up on an interrupt, the commits after this one wait
+	 * for it to be published.
+	 */
+	private void awaitTurn(long sequence) {
+		boolean interrupted = false;
+		synchronized (order) {
+			while (published != sequence - 1) {
+				try {
+					order.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CompletableFuture<Void> done) {
+		try {
+			done.get();
+		} catch (ExecutionException e) {
+			throw new UncheckedIOException("Price journal write failed", (IOException) e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing the price journal", e);
+		}
+	}
+
+	private static ByteBuffer encode(Iterable<Price> prices) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		int count = 0;
+		try {
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			for (Price price : prices) {
+				BinaryPriceFormat.write(price, out);
+				count++;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		record.putInt(RECORD_HEADER_SIZE, count);
+		final CRC32 crc = new CRC32();
+		crc.update(record.array(), RECORD_HEADER_SIZE, record.capacity() - RECORD_HEADER_SIZE);
+		record.putInt(0, record.capacity() - RECORD_HEADER_SIZE).putInt(Integer.BYTES, (int) crc.getValue());
+		return record;
+	}
+
+	/**
+	 * Only called by the writer or while no commit is in flight.
+	 */
+	private void openSegment(long number) throws IOException {
+		final FileChannel next = FileChannel.open(directory.resolve(segmentName(number)), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if (channel != null) {
+			channel.close();
+		}
+		channel = next;
+		segment = number;
+	}
+
+	private void writeSnapshot(PriceSnapshot snapshot, long firstSegment) throws IOException {
+		final Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeLong(firstSegment);
+			snapshot.forEach(price -> {
+				try {
+					BinaryPriceFormat.write(price, out);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			out.flush();
+			file.getFD().sync();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return first segment which is not in the snapshot
+	 */
+	private long loadSnapshot(Path path) throws IOException {
+		try (MappedFile file = new MappedFile(path)) {
+			final ByteBuffer header = file.at(0, SNAPSHOT_HEADER_SIZE);
+			if (header == null || header.getInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Invalid price snapshot: " + path);
+			}
+			final long firstSegment = header.getLong();
+			store.commit(() -> new SnapshotIterator(file));
+			return firstSegment;
+		}
+	}
+
+	/**
+	 * @return false if the segment ends with an incomplete record
+	 */
+	private boolean replay(Path path) throws IOException {
+		long offset = 0;
+		try (MappedFile file = new MappedFile(path)) {
+			for (;;) {
+				final ByteBuffer header = file.at(offset, RECORD_HEADER_SIZE);
+				if (header == null) {
+					break;
+				}
+				final int length = header.getInt();
+				final int checksum = header.getInt();
+				final ByteBuffer body = length < Integer.BYTES ? null : file.at(offset + RECORD_HEADER_SIZE, length);
+				if (body == null || checksum != checksum(body, length)) {
+					break;
+				}
+				final int count = body.getInt();
+				final List<Price> prices = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					prices.add(BinaryPriceFormat.read(body));
+				}
+				store.commit(prices);
+				replayedCommits++;
+				offset += RECORD_HEADER_SIZE + length;
+			}
+		}
+		if (offset < Files.size(path)) {
+			log.warn("Ignoring the incomplete tail of the price journal {} after {} bytes", path, offset);
+			try (FileChannel truncated = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				truncated.truncate(offset);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private static int checksum(ByteBuffer body, int length) {
+		final ByteBuffer bytes = body.duplicate();
+		bytes.limit(bytes.position() + length);
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+
+	private TreeMap<Long, Path> segments() throws IOException {
+		final TreeMap<Long, Path> segments = new TreeMap<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path path : paths) {
+				segments.put(segmentNumber(path), path);
+			}
+		}
+		return segments;
+	}
+
+	private static String segmentName(long number) {
+		return String.format("%016d%s", number, SEGMENT_SUFFIX);
+	}
+
+	private static long segmentNumber(Path path) {
+		final String name = path.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private static final class Append {
+		private final ByteBuffer record;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+		private long sequence;
+
+		Append(ByteBuffer record) {
+			this.record = record;
+		}
+	}
+
+	/**
+	 * Decodes the prices of a snapshot straight from the mapped file.
+	 */
+	private static final class SnapshotIterator implements Iterator<Price> {
+		private final MappedFile file;
+		private long offset = SNAPSHOT_HEADER_SIZE;
+
+		SnapshotIterator(MappedFile file) {
+			this.file = file;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return offset < file.size();
+		}
+
+		@Override
+		public Price next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				final ByteBuffer header = file.at(offset, BinaryPriceFormat.HEADER_SIZE);
+				final int size = header == null ? -1 : BinaryPriceFormat.recordSize(header);
+				final ByteBuffer record = size < 0 ? null : file.at(offset, size);
+				if (record == null) {
+					throw new IOException("Truncated price snapshot at " + offset);
+				}
+				offset += size;
+				return BinaryPriceFormat.read(record);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+}
@@ -1,11 +1,15 @@
 package com.batch.model;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,7 +17,21 @@ import org.slf4j.LoggerFactory;
 import com.batch.exception.BatchAlreadyCommitted;
 
 /**
- * Model class for Batch. It uses ReadWriteLock to ensure consistency.
+ * Model class for Batch. A single state word holds the closed flag, the
+ * exclusive flag of a spill and the number of uploads in flight, so an upload
+ * only needs one compare and set to enter and one decrement to leave. Closing
+ * sets the closed flag, which fails every later upload, and waits for the
+ * uploads in flight.
+ * 
+ * The prices are staged in a {@link StagingTable} keyed by the primitive id,
+ * taken from a pool and given back after the commit or the discard.
+ * 
+ * Uploads may be numbered chunks, which are tracked in a {@link ChunkLog} so
+ * a retried chunk is only merged again if it was not applied.
+ * 
+ * If a spill threshold is set, the staged prices are written to a sorted run
+ * on disk whenever more than the threshold are in memory, so the size of a
+ * batch is not bound by the heap.
  * 
  * @author faizanhussain
  *
@@ -22,13 +40,71 @@ public class Batch {
 
 	private static final Logger log = LoggerFactory.getLogger(Batch.class);
 
+	private static final long CLOSED = 1L << 62;
+	private static final long EXCLUSIVE = 1L << 61;
+	private static final long IN_FLIGHT = EXCLUSIVE - 1;
+	private static final int SPINS = 100;
+	private static final long PARK_NANOS = 10_000;
+	/**
+	 * Estimated heap bytes of a staged price without its payload: Price,
+	 * LocalDateTime, LocalDate, LocalTime and the array header of the payload
+	 * bytes.
+	 */
+	private static final long BYTES_PER_STAGED_PRICE = 32 + 24 + 24 + 24 + 16;
+	/**
+	 * Bytes of a slot of a staging table with compressed references.
+	 */
+	private static final long BYTES_PER_SLOT = 4;
+
 	private final long id;
-	private final ConcurrentMap<Long, Price> pricesMap = new ConcurrentHashMap<>();
-	private boolean isValidBatch = true;
-	private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private final StagingTablePool pool;
+	private volatile StagingTable table;
+	private final AtomicLong state = new AtomicLong();
+	private final int spillThreshold;
+	private final Path spillDirectory;
+	private final List<Path> runs = new ArrayList<>();
+	private final LongAdder payloadBytes = new LongAdder();
+	private final ChunkLog chunks = new ChunkLog();
+	private long spilledBytes;
+	private long spilledPrices;
+	private volatile long lastAccessNanos = System.nanoTime();
 
 	public Batch(long id) {
+		this(id, 0, null);
+	}
+
+	/**
+	 * @param id
+	 * @param spillThreshold
+	 *            number of prices in memory after which they are spilled, 0
+	 *            to keep all of them in memory
+	 * @param spillDirectory
+	 *            directory of the spilled runs
+	 */
+	public Batch(long id, int spillThreshold, Path spillDirectory) {
+		this(id, 0, spillThreshold, spillDirectory, StagingTablePool.NONE);
+	}
+
+	/**
+	 * @param id
+	 * @param sizeHint
+	 *            expected number of distinct ids, the staging table holds
+	 *            them without growing
+	 * @param spillThreshold
+	 *            number of prices in memory after which they are spilled, 0
+	 *            to keep all of them in memory
+	 * @param spillDirectory
+	 *            directory of the spilled runs
+	 * @param pool
+	 *            pool the staging table is taken from and given back to after
+	 *            the commit or the discard
+	 */
+	public Batch(long id, int sizeHint, int spillThreshold, Path spillDirectory, StagingTablePool pool) {
 		this.id = id;
+		this.spillThreshold = spillThreshold;
+		this.spillDirectory = spillDirectory;
+		this.pool = pool;
+		this.table = pool.acquire(spillThreshold > 0 ? Math.min(sizeHint, spillThreshold) : sizeHint);
 	}
 
 	public long getId() {
@@ -36,40 +112,260 @@ public class Batch {
 	}
 
 	/**
-	 * Acquire the lock, For each price in prices compute the new price and release
-	 * lock.
+	 * @return {@link System#nanoTime()} of the creation or the last upload
+	 */
+	public long getLastAccessNanos() {
+		return lastAccessNanos;
+	}
+
+	/**
+	 * Claim a numbered chunk before it is uploaded, it has to be finished with
+	 * {@link #finishChunk(long, boolean)} after the upload.
+	 * 
+	 * @param sequence
+	 * @return false if the chunk was applied already and is not uploaded again
+	 */
+	public boolean claimChunk(long sequence) {
+		lastAccessNanos = System.nanoTime();
+		return chunks.claim(id, sequence);
+	}
+
+	/**
+	 * @param sequence
+	 *            of a claimed chunk
+	 * @param applied
+	 *            true if all its prices were uploaded, otherwise it can be
+	 *            claimed again
+	 */
+	public void finishChunk(long sequence, boolean applied) {
+		chunks.finish(sequence, applied);
+	}
+
+	/**
+	 * @return numbered chunks applied to the batch
+	 */
+	public ChunkStatus getChunkStatus() {
+		return chunks.status(id);
+	}
+
+	/**
+	 * Reduce the prices to the latest price per id, enter the batch with room
+	 * for them in the staging table, merge them and leave.
 	 * 
 	 * @param prices
+	 * @return number of prices which were older than another price of the
+	 *         chunk or than the staged price
 	 */
-	public void upload(List<Price> prices) {
-		log.info("Starting batch {}", id);
+	public int upload(List<Price> prices) {
+		lastAccessNanos = System.nanoTime();
+		final ChunkReducer reducer = ChunkReducer.get();
+		final int size = reducer.reduce(prices);
+		int stale = prices.size() - size;
 		try {
-			rwLock.readLock().lock();
-			if (!isValidBatch) {
-				throw new BatchAlreadyCommitted(id);
+			final StagingTable staging = enter(size);
+			int added = 0;
+			try {
+				long addedBytes = 0;
+				for (int i = 0; i < size; i++) {
+					final Price price = reducer.price(i);
+					final Price replaced = staging.merge(price);
+					if (replaced == price) {
+						stale++;
+					} else if (replaced == null) {
+						added++;
+						addedBytes += payloadBytes(price);
+					} else {
+						addedBytes += payloadBytes(price) - payloadBytes(replaced);
+					}
+				}
+				payloadBytes.add(addedBytes);
+			} finally {
+				staging.release(size - added);
+				state.decrementAndGet();
 			}
-			prices.forEach(price -> pricesMap.compute(price.getId(), new PriceFinder(price)));
 		} finally {
-			rwLock.readLock().unlock();
+			reducer.clear();
+		}
+		if (spillThreshold > 0 && table.size() > spillThreshold) {
+			spill();
 		}
-		log.info("Ending batch {}", id);
+		return stale;
+	}
+
+	private static long payloadBytes(Price price) {
+		final byte[] payload = price.getPayloadBytes();
+		return payload == null ? 0 : (payload.length + 7) & ~7L;
 	}
 
 	/**
-	 * Acquire the lock, close the batch and return the latest prices and release
-	 * lock.
+	 * Enter the batch with room reserved in the staging table for the
+	 * entries, the table is grown first if they may not fit.
 	 * 
-	 * @return
+	 * @param entries
+	 * @return the table the room is reserved in
+	 */
+	private StagingTable enter(int entries) {
+		for (;;) {
+			enter();
+			final StagingTable staging = table;
+			if (staging.reserve(entries)) {
+				return staging;
+			}
+			state.decrementAndGet();
+			grow(entries);
+		}
+	}
+
+	/**
+	 * Take the batch exclusively and move the staged prices to a larger table
+	 * from the pool, with room for the entries.
+	 */
+	private void grow(int entries) {
+		if (!exclusive()) {
+			return;
+		}
+		try {
+			awaitUploads();
+			final StagingTable current = table;
+			if (current.reserve(entries)) {
+				// grown by another upload
+				current.release(entries);
+				return;
+			}
+			final StagingTable larger = pool.acquire(current.size() + entries);
+			current.copyTo(larger);
+			// the outgrown table is dropped, the pool keeps the tables batches end with
+			table = larger;
+			log.debug("Batch {} staging table grown to {} slots", id, larger.capacity());
+		} finally {
+			state.addAndGet(-EXCLUSIVE);
+		}
+	}
+
+	/**
+	 * Take the batch exclusively and move the prices in memory to a new sorted
+	 * run.
 	 */
-	public Collection<Price> closeAndRefresh() {
-		log.info("Closing batch {}", id);
+	private void spill() {
+		if (!exclusive()) {
+			return;
+		}
 		try {
-			rwLock.writeLock().lock();
-			isValidBatch = false;
-			return pricesMap.values();
+			awaitUploads();
+			final StagingTable staging = table;
+			if (staging.size() <= spillThreshold) {
+				return;
+			}
+			final Price[] sorted = staging.values().toArray(new Price[0]);
+			Arrays.sort(sorted, StagedPrices.BY_ID);
+			Files.createDirectories(spillDirectory);
+			final Path run = Files.createTempFile(spillDirectory, "batch-" + id + "-", ".run");
+			runs.add(run);
+			StagedPrices.writeRun(sorted, run);
+			staging.clear();
+			payloadBytes.reset();
+			spilledBytes += Files.size(run);
+			spilledPrices += sorted.length;
+			log.debug("Batch {} spilled {} prices to {}", id, sorted.length, run);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Spill of batch " + id + " failed", e);
 		} finally {
-			rwLock.writeLock().unlock();
-			log.info("Batch closed for {}", id);
+			state.addAndGet(-EXCLUSIVE);
+		}
+	}
+
+	/**
+	 * Close the batch, wait for the uploads and the spill in flight and return
+	 * the latest prices. The staging table goes back to the pool when they are
+	 * closed.
+	 * 
+	 * @return prices to be closed after use
+	 */
+	public StagedPrices closeAndRefresh() {
+		close();
+		awaitUploadsAndSpill();
+		final StagingTable staging = table;
+		log.debug("Batch closed for {} with {} prices", id, staging.size());
+		return new StagedPrices(staging.values(), runs, spilledPrices, () -> pool.release(staging));
+	}
+
+	/**
+	 * Discard the batch without reading its prices. It is closed like a
+	 * commit and the uploads in flight are awaited, so the staging table can
+	 * go straight back to the pool. The spilled runs are deleted.
+	 * 
+	 * @return estimated bytes of the staged prices in memory and on disk
+	 */
+	public long discard() {
+		close();
+		awaitUploadsAndSpill();
+		final StagingTable staging = table;
+		final long bytes = staging.size() * BYTES_PER_STAGED_PRICE + payloadBytes.sum()
+				+ staging.capacity() * BYTES_PER_SLOT + spilledBytes;
+		for (Path run : runs) {
+			try {
+				Files.deleteIfExists(run);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		pool.release(staging);
+		log.debug("Batch discarded for {} with {} bytes staged", id, bytes);
+		return bytes;
+	}
+
+	private void close() {
+		long current;
+		do {
+			current = state.get();
+		} while ((current & CLOSED) == 0 && !state.compareAndSet(current, current | CLOSED));
+	}
+
+	/**
+	 * @return false if the batch is closed or held exclusively by another
+	 */
+	private boolean exclusive() {
+		long current;
+		do {
+			current = state.get();
+			if ((current & (CLOSED | EXCLUSIVE)) != 0) {
+				return false;
+			}
+		} while (!state.compareAndSet(current, current | EXCLUSIVE));
+		return true;
+	}
+
+	private void awaitUploadsAndSpill() {
+		for (int spins = 0; (state.get() & (EXCLUSIVE | IN_FLIGHT)) != 0; spins++) {
+			backOff(spins);
+		}
+	}
+
+	private void enter() {
+		for (int spins = 0;; spins++) {
+			final long current = state.get();
+			if ((current & CLOSED) != 0) {
+				throw new BatchAlreadyCommitted(id);
+			}
+			if ((current & EXCLUSIVE) != 0) {
+				backOff(spins);
+			} else if (state.compareAndSet(current, current + 1)) {
+				return;
+			}
+		}
+	}
+
+	private void awaitUploads() {
+		for (int spins = 0; (state.get() & IN_FLIGHT) != 0; spins++) {
+			backOff(spins);
+		}
+	}
+
+	private static void backOff(int spins) {
+		if (spins < SPINS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
 		}
 	}
 
@@ -0,0 +1,82 @@
+package com.batch.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.batch.exception.ChunkInProgressException;
+import com.batch.exception.InvalidChunkException;
+
+/**
+ * Numbered chunks of a batch, the ones being uploaded and the ones applied. A
+ * chunk is claimed before its prices are merged and marked applied once all of
+ * them are, so a retried chunk is only merged again if the earlier upload
+ * failed. The sequence numbers start at 0 and are kept in bit sets, a batch
+ * uploaded in order takes one bit per chunk.
+ *
+ * @author faizanhussain
+ *
+ */
+final class ChunkLog {
+
+	static final int MAX_CHUNKS = 1 << 20;
+
+	private final BitSet applied = new BitSet();
+	private final BitSet inFlight = new BitSet();
+
+	/**
+	 * @param batchId
+	 * @param sequence
+	 * @return false if the chunk was applied already
+	 * @throws ChunkInProgressException
+	 *             if the chunk is being uploaded by another request
+	 */
+	synchronized boolean claim(long batchId, long sequence) {
+		final int chunk = index(batchId, sequence);
+		if (applied.get(chunk)) {
+			return false;
+		}
+		if (inFlight.get(chunk)) {
+			throw new ChunkInProgressException(batchId, sequence);
+		}
+		inFlight.set(chunk);
+		return true;
+	}
+
+	/**
+	 * @param sequence
+	 *            of a claimed chunk
+	 * @param success
+	 *            true if all its prices were merged, otherwise it can be
+	 *            claimed again
+	 */
+	synchronized void finish(long sequence, boolean success) {
+		final int chunk = (int) sequence;
+		inFlight.clear(chunk);
+		if (success) {
+			applied.set(chunk);
+		}
+	}
+
+	/**
+	 * @param batchId
+	 * @return applied chunks as ranges of sequence numbers
+	 */
+	synchronized ChunkStatus status(long batchId) {
+		final List<long[]> ranges = new ArrayList<>();
+		for (int from = applied.nextSetBit(0); from >= 0; from = applied.nextSetBit(from)) {
+			final int to = applied.nextClearBit(from);
+			ranges.add(new long[] { from, to - 1 });
+			from = to;
+		}
+		return new ChunkStatus(batchId, applied.cardinality(), ranges);
+	}
+
+	private static int index(long batchId, long sequence) {
+		if (sequence < 0 || sequence >= MAX_CHUNKS) {
+			throw new InvalidChunkException(batchId, sequence, MAX_CHUNKS);
+		}
+		return (int) sequence;
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.batch.model;
+
+import java.util.List;
+
+/**
+ * Reduces a chunk of prices to the latest price per id before it is merged
+ * into a batch. The table is keyed by the primitive id and reused by its
+ * thread, so reducing a chunk does not allocate.
+ *
+ * @author faizanhussain
+ *
+ */
+final class ChunkReducer {
+
+	private static final ThreadLocal<ChunkReducer> REDUCERS = ThreadLocal.withInitial(ChunkReducer::new);
+
+	private static final int MIN_CAPACITY = 64;
+
+	/**
+	 * Largest table kept by a thread between chunks, a bigger one is dropped
+	 * when it is cleared so one huge chunk does not stay with the thread.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 1 << 12;
+
+	private long[] ids = new long[MIN_CAPACITY];
+	/**
+	 * Position in prices plus one, 0 is an empty slot.
+	 */
+	private int[] positions = new int[MIN_CAPACITY];
+	private int[] slots = new int[MIN_CAPACITY / 2];
+	private Price[] prices = new Price[MIN_CAPACITY / 2];
+	private int mask = MIN_CAPACITY - 1;
+	private int size;
+
+	static ChunkReducer get() {
+		return REDUCERS.get();
+	}
+
+	/**
+	 * @param chunk
+	 * @return number of distinct ids in the chunk
+	 */
+	int reduce(List<Price> chunk) {
+		ensureCapacity(chunk.size());
+		for (Price price : chunk) {
+			final long id = price.getId();
+			int slot = slot(id);
+			while (positions[slot] != 0 && ids[slot] != id) {
+				slot = (slot + 1) & mask;
+			}
+			if (positions[slot] == 0) {
+				ids[slot] = id;
+				positions[slot] = size + 1;
+				slots[size] = slot;
+				prices[size++] = price;
+			} else if (PriceFinder.isNewPrice(prices[positions[slot] - 1], price)) {
+				prices[positions[slot] - 1] = price;
+			}
+		}
+		return size;
+	}
+
+	Price price(int position) {
+		return prices[position];
+	}
+
+	/**
+	 * Empties the table and drops the prices of the last chunk.
+	 */
+	void clear() {
+		if (ids.length > MAX_RETAINED_CAPACITY) {
+			allocate(MIN_CAPACITY);
+		} else {
+			for (int i = 0; i < size; i++) {
+				positions[slots[i]] = 0;
+				prices[i] = null;
+			}
+		}
+		size = 0;
+	}
+
+	private void ensureCapacity(int chunkSize) {
+		if (chunkSize <= prices.length) {
+			return;
+		}
+		allocate(Integer.highestOneBit(chunkSize * 2 - 1) << 1);
+	}
+
+	private void allocate(int capacity) {
+		ids = new long[capacity];
+		positions = new int[capacity];
+		slots = new int[capacity / 2];
+		prices = new Price[capacity / 2];
+		mask = capacity - 1;
+	}
+
+	private int slot(long id) {
+		final long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.batch.model;
+
+import java.util.List;
+
+/**
+ * Numbered chunks applied to an open batch, so a client resuming an upload
+ * only sends the chunks which are missing.
+ *
+ * @author faizanhussain
+ *
+ */
+public class ChunkStatus {
+
+	private final long batchId;
+	private final int count;
+	private final List<long[]> received;
+
+	public ChunkStatus(long batchId, int count, List<long[]> received) {
+		this.batchId = batchId;
+		this.count = count;
+		this.received = received;
+	}
+
+	public long getBatchId() {
+		return batchId;
+	}
+
+	/**
+	 * @return number of applied chunks
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return applied chunks as ascending ranges of the first and the last
+	 *         sequence number
+	 */
+	public List<long[]> getReceived() {
+		return received;
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.batch.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import com.batch.exception.InvalidAsOfException;
+
+/**
+ * Conversion of asOf to and from nanoseconds since the epoch, which is how
+ * asOf is kept outside of a {@link Price}. asOf has no zone so UTC is used.
+ * A long of nanoseconds holds the asOf from {@link #MIN} to {@link #MAX},
+ * prices with an asOf outside of them are rejected when they are read.
+ * 
+ * @author faizanhussain
+ *
+ */
+public final class EpochNanos {
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	public static final LocalDateTime MIN = toLocalDateTime(Long.MIN_VALUE);
+
+	public static final LocalDateTime MAX = toLocalDateTime(Long.MAX_VALUE);
+
+	private EpochNanos() {
+	}
+
+	/**
+	 * @param asOf
+	 * @return nanoseconds since the epoch
+	 * @throws InvalidAsOfException
+	 *             if the asOf is before {@link #MIN} or after {@link #MAX}
+	 */
+	public static long of(LocalDateTime asOf) {
+		long seconds = asOf.toEpochSecond(ZoneOffset.UTC);
+		long nanos = asOf.getNano();
+		if (seconds < 0 && nanos > 0) {
+			// the seconds alone may be beyond the range of the nanoseconds
+			seconds++;
+			nanos -= NANOS_PER_SECOND;
+		}
+		try {
+			return Math.addExact(Math.multiplyExact(seconds, NANOS_PER_SECOND), nanos);
+		} catch (ArithmeticException e) {
+			throw new InvalidAsOfException(asOf);
+		}
+	}
+
+	/**
+	 * @param asOf
+	 *            may be null
+	 * @return the asOf
+	 * @throws InvalidAsOfException
+	 *             if the asOf is before {@link #MIN} or after {@link #MAX}
+	 */
+	public static LocalDateTime requireInRange(LocalDateTime asOf) {
+		if (asOf != null) {
+			of(asOf);
+		}
+		return asOf;
+	}
+
+	public static LocalDateTime toLocalDateTime(long epochNanos) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+				(int) Math.floorMod(epochNanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+	}
+
+}
@@ -1,15 +1,23 @@
 package com.batch.model;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 
 import javax.validation.constraints.NotNull;
 
+import com.batch.codec.JsonPriceSerializer;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 /***
- * Model class for price.
+ * Model class for price. The payload is never interpreted, it is kept as the
+ * UTF-8 bytes it arrives in and written out as they are.
  * 
  * @author faizanhussain
  *
  */
+@JsonSerialize(using = JsonPriceSerializer.class)
 public class Price {
 
 	@NotNull
@@ -19,9 +27,26 @@ public class Price {
 	private LocalDateTime asOf;
 
 	@NotNull
-	private String payload;
+	private byte[] payload;
 
+	/**
+	 * @param id
+	 * @param asOf
+	 *            has to be within the range of {@link EpochNanos}
+	 * @param payload
+	 */
+	@JsonCreator
 	public Price(long id, LocalDateTime asOf, String payload) {
+		this(id, EpochNanos.requireInRange(asOf), payload == null ? null : payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param id
+	 * @param asOf
+	 * @param payload
+	 *            UTF-8 bytes, owned by the price from now on
+	 */
+	public Price(long id, LocalDateTime asOf, byte[] payload) {
 		this.id = id;
 		this.asOf = asOf;
 		this.payload = payload;
@@ -35,7 +60,18 @@ public class Price {
 		return asOf;
 	}
 
+	/**
+	 * @return payload decoded from its bytes
+	 */
 	public String getPayload() {
+		return payload == null ? null : new String(payload, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return UTF-8 bytes of the payload, not a copy so they must not be
+	 *         changed
+	 */
+	public byte[] getPayloadBytes() {
 		return payload;
 	}
 
@@ -45,7 +81,7 @@ public class Price {
 		int result = 1;
 		result = prime * result + ((asOf == null) ? 0 : asOf.hashCode());
 		result = prime * result + (int) (id ^ (id >>> 32));
-		result = prime * result + ((payload == null) ? 0 : payload.hashCode());
+		result = prime * result + Arrays.hashCode(payload);
 		return result;
 	}
 
@@ -65,17 +101,14 @@ public class Price {
 			return false;
 		if (id != other.id)
 			return false;
-		if (payload == null) {
-			if (other.payload != null)
-				return false;
-		} else if (!payload.equals(other.payload))
+		if (!Arrays.equals(payload, other.payload))
 			return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "Price [id=" + id + ", asOf=" + asOf + ", payload=" + payload + "]";
+		return "Price [id=" + id + ", asOf=" + asOf + ", payload=" + getPayload() + "]";
 	}
 
 }
@@ -2,9 +2,6 @@ package com.batch.model;
 
 import java.util.function.BiFunction;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 /**
  * Determine if the price is new using DateTime.
  * 
@@ -13,8 +10,6 @@ import org.slf4j.LoggerFactory;
  */
 public class PriceFinder implements BiFunction<Long, Price, Price> {
 
-	private static final Logger log = LoggerFactory.getLogger(PriceFinder.class);
-
 	private final Price newPrice;
 
 	public PriceFinder(Price newPrice) {
@@ -23,14 +18,21 @@ public class PriceFinder implements BiFunction<Long, Price, Price> {
 
 	@Override
 	public Price apply(Long key, Price oldPrice) {
-		Price price = oldPrice;
-		if (isNewPrice(oldPrice))
-			price = newPrice;
-		log.info("Price id: {}, old price: {}, new price: {}, using: {}", key, oldPrice, newPrice, price);
-		return price;
+		return isNewPrice(oldPrice) ? newPrice : oldPrice;
 	}
 
 	private boolean isNewPrice(Price oldPrice) {
+		return isNewPrice(oldPrice, newPrice);
+	}
+
+	/**
+	 * The new price wins if there is no old price or if it is strictly newer.
+	 * 
+	 * @param oldPrice
+	 * @param newPrice
+	 * @return
+	 */
+	public static boolean isNewPrice(Price oldPrice, Price newPrice) {
 		return oldPrice == null || oldPrice.getAsOf().isBefore(newPrice.getAsOf());
 	}
 
@@ -0,0 +1,240 @@
+package com.batch.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.batch.codec.BinaryPriceFormat;
+
+/**
+ * Latest prices of a closed batch. If the batch was spilled to disk they are
+ * merged from its sorted runs and the prices still in memory, one price per id
+ * in the order of the ids, without loading the runs. It can be iterated more
+ * than once and has to be closed to delete the runs and to give the staging
+ * table back.
+ *
+ * @author faizanhussain
+ *
+ */
+public class StagedPrices implements Iterable<Price>, AutoCloseable {
+
+	static final Comparator<Price> BY_ID = Comparator.comparingLong(Price::getId);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Collection<Price> prices;
+	private final List<Path> runs;
+	private final long spilledCount;
+	private final Set<Closeable> openRuns = ConcurrentHashMap.newKeySet();
+	private Runnable release;
+
+	/**
+	 * @param prices
+	 * @param runs
+	 * @param spilledCount
+	 *            number of prices in the runs
+	 * @param release
+	 *            called once on close, after which the prices are not read
+	 */
+	StagedPrices(Collection<Price> prices, List<Path> runs, long spilledCount, Runnable release) {
+		this.prices = prices;
+		this.runs = runs;
+		this.spilledCount = spilledCount;
+		this.release = release;
+	}
+
+	/**
+	 * @return true if some of the prices are on disk
+	 */
+	public boolean isSpilled() {
+		return !runs.isEmpty();
+	}
+
+	/**
+	 * @return number of prices, without reading the runs. An id in more than
+	 *         one run is counted once for each, so it can be more than the
+	 *         prices iterated.
+	 */
+	public long size() {
+		return prices.size() + spilledCount;
+	}
+
+	@Override
+	public Iterator<Price> iterator() {
+		if (runs.isEmpty()) {
+			return prices.iterator();
+		}
+		final Price[] sorted = prices.toArray(new Price[0]);
+		Arrays.sort(sorted, BY_ID);
+		final List<Iterator<Price>> sources = new ArrayList<>(runs.size() + 1);
+		for (Path run : runs) {
+			sources.add(new RunIterator(run));
+		}
+		// the prices in memory were uploaded after the last spill
+		sources.add(Arrays.asList(sorted).iterator());
+		return new MergeIterator(sources);
+	}
+
+	@Override
+	public void close() {
+		if (release != null) {
+			release.run();
+			release = null;
+		}
+		for (Closeable run : openRuns) {
+			try {
+				run.close();
+			} catch (IOException e) {
+				// the run is deleted below
+			}
+		}
+		for (Path run : runs) {
+			try {
+				Files.deleteIfExists(run);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the prices, sorted by id with one price per id, as a run.
+	 *
+	 * @param sorted
+	 * @param run
+	 * @throws IOException
+	 */
+	static void writeRun(Price[] sorted, Path run) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+			out.writeInt(sorted.length);
+			for (Price price : sorted) {
+				BinaryPriceFormat.write(price, out);
+			}
+		}
+	}
+
+	private final class RunIterator implements Iterator<Price>, Closeable {
+		private final DataInputStream in;
+		private int remaining;
+
+		RunIterator(Path run) {
+			try {
+				this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+				this.remaining = in.readInt();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			openRuns.add(this);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public Price next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				final Price price = BinaryPriceFormat.read(in);
+				if (--remaining == 0) {
+					close();
+				}
+				return price;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			openRuns.remove(this);
+			in.close();
+		}
+	}
+
+	/**
+	 * K-way merge of sorted sources in the order they were uploaded, the latest
+	 * price wins for an id which is in more than one of them. Prices of an id
+	 * with the same as of are taken in the order of the sources, so the first
+	 * uploaded is kept as it is in memory.
+	 */
+	private static final class MergeIterator implements Iterator<Price> {
+		private final PriorityQueue<Head> heads;
+
+		MergeIterator(List<Iterator<Price>> sources) {
+			heads = new PriorityQueue<>(sources.size(),
+					Comparator.<Head, Price> comparing(head -> head.price, BY_ID).thenComparingInt(head -> head.index));
+			for (int index = 0; index < sources.size(); index++) {
+				final Iterator<Price> source = sources.get(index);
+				if (source.hasNext()) {
+					heads.add(new Head(source, index));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public Price next() {
+			if (heads.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			Price latest = null;
+			final long id = heads.peek().price.getId();
+			while (!heads.isEmpty() && heads.peek().price.getId() == id) {
+				final Head head = heads.poll();
+				if (PriceFinder.isNewPrice(latest, head.price)) {
+					latest = head.price;
+				}
+				if (head.advance()) {
+					heads.add(head);
+				}
+			}
+			return latest;
+		}
+	}
+
+	private static final class Head {
+		private final Iterator<Price> source;
+		private final int index;
+		private Price price;
+
+		Head(Iterator<Price> source, int index) {
+			this.source = source;
+			this.index = index;
+			this.price = source.next();
+		}
+
+		boolean advance() {
+			if (!source.hasNext()) {
+				return false;
+			}
+			price = source.next();
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package com.batch.model;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Staged prices of a batch keyed by the primitive id. Open addressing with
+ * linear probing over an array of prices, the id of a slot is the one of its
+ * price, so there are neither boxed keys nor map nodes. Uploads claim and
+ * replace slots with compare and set and merge concurrently.
+ *
+ * The table never grows by itself: an upload reserves room for the ids of its
+ * chunk before it merges them, and when the reservation fails the batch moves
+ * the prices to a larger table while it holds the batch exclusively. Tables
+ * are cleared and reused through the {@link StagingTablePool}.
+ *
+ * @author faizanhussain
+ *
+ */
+final class StagingTable {
+
+	static final int MIN_CAPACITY = 64;
+	static final int MAX_CAPACITY = 1 << 30;
+	private static final int MAX_LOAD_PERCENT = 50;
+
+	private final AtomicReferenceArray<Price> slots;
+	private final int mask;
+	private final int threshold;
+	/**
+	 * Staged prices plus the reservations of the uploads in flight.
+	 */
+	private final AtomicInteger reserved = new AtomicInteger();
+
+	StagingTable(int capacity) {
+		this.slots = new AtomicReferenceArray<>(capacity);
+		this.mask = capacity - 1;
+		this.threshold = (int) ((long) capacity * MAX_LOAD_PERCENT / 100);
+	}
+
+	/**
+	 * @param entries
+	 * @return power of two capacity which holds the entries within the load
+	 *         factor
+	 */
+	static int capacityFor(int entries) {
+		final long needed = Math.max(MIN_CAPACITY, (long) entries * 100 / MAX_LOAD_PERCENT + 1);
+		if (needed > MAX_CAPACITY) {
+			throw new IllegalStateException("A batch can't stage more than " + MAX_CAPACITY * MAX_LOAD_PERCENT / 100
+					+ " prices in memory, set a spill threshold.");
+		}
+		return Integer.highestOneBit((int) needed - 1) << 1;
+	}
+
+	/**
+	 * Reserve room for prices of ids which may not be staged yet.
+	 *
+	 * @param entries
+	 * @return false if they may not fit
+	 */
+	boolean reserve(int entries) {
+		for (;;) {
+			final int current = reserved.get();
+			if (current + entries > threshold) {
+				return false;
+			}
+			if (reserved.compareAndSet(current, current + entries)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Give back the reserved room which was not used.
+	 *
+	 * @param entries
+	 */
+	void release(int entries) {
+		reserved.addAndGet(-entries);
+	}
+
+	/**
+	 * Merge a price into a reserved slot, the latest price wins. It is retried
+	 * if another upload changed the staged price in between.
+	 *
+	 * @param price
+	 * @return the staged price it replaced, null if the id was not staged, or
+	 *         the price itself if it is not newer than the staged price
+	 */
+	Price merge(Price price) {
+		final long id = price.getId();
+		int slot = slot(id);
+		for (;;) {
+			final Price staged = slots.get(slot);
+			if (staged == null) {
+				if (slots.compareAndSet(slot, null, price)) {
+					return null;
+				}
+			} else if (staged.getId() != id) {
+				slot = (slot + 1) & mask;
+			} else if (!PriceFinder.isNewPrice(staged, price)) {
+				return price;
+			} else if (slots.compareAndSet(slot, staged, price)) {
+				return staged;
+			}
+		}
+	}
+
+	/**
+	 * Copy the prices into an empty table, with no upload in flight. The ids
+	 * are distinct, so the prices are put into the first empty slot without
+	 * compare and set, the table is published by the exclusive release of the
+	 * batch.
+	 *
+	 * @param table
+	 */
+	void copyTo(StagingTable table) {
+		final int size = size();
+		for (int i = 0; i < slots.length(); i++) {
+			final Price price = slots.get(i);
+			if (price != null) {
+				int slot = table.slot(price.getId());
+				while (table.slots.get(slot) != null) {
+					slot = (slot + 1) & table.mask;
+				}
+				table.slots.lazySet(slot, price);
+			}
+		}
+		table.reserved.addAndGet(size);
+	}
+
+	/**
+	 * @return staged prices, exact when no upload is in flight
+	 */
+	int size() {
+		return reserved.get();
+	}
+
+	int capacity() {
+		return slots.length();
+	}
+
+	void clear() {
+		for (int i = 0; i < slots.length(); i++) {
+			slots.lazySet(i, null);
+		}
+		reserved.set(0);
+	}
+
+	/**
+	 * @return view of the staged prices
+	 */
+	AbstractCollection<Price> values() {
+		return new AbstractCollection<Price>() {
+
+			@Override
+			public Iterator<Price> iterator() {
+				return new Iterator<Price>() {
+					private int next = advance(0);
+
+					@Override
+					public boolean hasNext() {
+						return next < slots.length();
+					}
+
+					@Override
+					public Price next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						final Price price = slots.get(next);
+						next = advance(next + 1);
+						return price;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return StagingTable.this.size();
+			}
+		};
+	}
+
+	private int advance(int from) {
+		int slot = from;
+		while (slot < slots.length() && slots.get(slot) == null) {
+			slot++;
+		}
+		return slot;
+	}
+
+	private int slot(long id) {
+		final long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+}
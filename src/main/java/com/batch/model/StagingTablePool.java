@@ -0,0 +1,103 @@
+package com.batch.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of the cleared staging tables of the committed and discarded batches,
+ * by capacity. A new batch takes the smallest pooled table which holds its
+ * size hint and is at most twice the capacity it needs, so the tables of
+ * similar batches are reused instead of being allocated and grown again for
+ * every batch, and a small batch does not hold a large table. Tables grown
+ * beyond {@link #MAX_POOLED_CAPACITY} are left to the collector, which bounds
+ * the memory of the pool.
+ *
+ * @author faizanhussain
+ *
+ */
+public final class StagingTablePool {
+
+	/**
+	 * Pool which keeps no table, every batch allocates its own.
+	 */
+	public static final StagingTablePool NONE = new StagingTablePool(0);
+
+	/**
+	 * Largest capacity of a pooled table.
+	 */
+	static final int MAX_POOLED_CAPACITY = 1 << 18;
+
+	private final int maxTables;
+	private final List<Queue<StagingTable>> byCapacity = new ArrayList<>(Integer.SIZE);
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final LongAdder allocated = new LongAdder();
+
+	/**
+	 * @param maxTables
+	 *            most tables kept, 0 to keep none
+	 */
+	public StagingTablePool(int maxTables) {
+		this.maxTables = maxTables;
+		for (int i = 0; i < Integer.SIZE; i++) {
+			byCapacity.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	/**
+	 * @param entries
+	 *            prices the table should hold without growing
+	 * @return an empty table
+	 */
+	StagingTable acquire(int entries) {
+		final int capacity = StagingTable.capacityFor(entries);
+		if (pooled.get() > 0) {
+			final int smallest = Integer.numberOfTrailingZeros(capacity);
+			for (int i = smallest; i <= smallest + 1 && i < byCapacity.size(); i++) {
+				final StagingTable table = byCapacity.get(i).poll();
+				if (table != null) {
+					pooled.decrementAndGet();
+					return table;
+				}
+			}
+		}
+		allocated.increment();
+		return new StagingTable(capacity);
+	}
+
+	/**
+	 * Clear the table and keep it if the pool is not full and the table is not
+	 * too large. Nothing may use it after.
+	 *
+	 * @param table
+	 */
+	void release(StagingTable table) {
+		if (table.capacity() > MAX_POOLED_CAPACITY) {
+			return;
+		}
+		if (pooled.incrementAndGet() > maxTables) {
+			pooled.decrementAndGet();
+			return;
+		}
+		table.clear();
+		byCapacity.get(Integer.numberOfTrailingZeros(table.capacity())).offer(table);
+	}
+
+	/**
+	 * @return number of tables in the pool
+	 */
+	public int getPooledCount() {
+		return pooled.get();
+	}
+
+	/**
+	 * @return number of tables allocated because the pool had none which fit
+	 */
+	public long getAllocatedCount() {
+		return allocated.sum();
+	}
+
+}
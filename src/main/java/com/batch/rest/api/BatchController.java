@@ -1,25 +1,48 @@
 package com.batch.rest.api;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 
+import com.batch.codec.BinaryPriceFormat;
+import com.batch.codec.BinaryPriceReader;
+import com.batch.codec.JsonPriceReader;
+import com.batch.codec.PriceDecoder;
+import com.batch.codec.PriceReader;
+import com.batch.component.UploadPipeline;
+import com.batch.component.UploadPipeline.Upload;
 import com.batch.model.Batch;
+import com.batch.model.ChunkStatus;
 import com.batch.model.Price;
 import com.batch.service.PriceService;
 
 /**
- * Rest API for batch.
+ * Rest API for batch. Every upload may be a numbered chunk of the batch, with
+ * the sequence number in the seq parameter. A chunk which was applied already
+ * is acknowledged without reading it again, so a client can retry a chunk and
+ * resume an upload from the chunks listed by the chunks endpoint.
  * 
  * @author faizanhussain
  *
@@ -33,35 +56,196 @@ class BatchController {
 	@Autowired
 	private PriceService priceService;
 
+	@Autowired
+	private JsonPriceReader jsonPriceReader;
+
+	@Autowired
+	private BinaryPriceReader binaryPriceReader;
+
+	@Autowired
+	private UploadPipeline uploadPipeline;
+
+	@Value("${batch.upload.async-timeout:600000}")
+	private long asyncTimeout;
+
+	/**
+	 * @param sizeHint
+	 *            expected number of distinct ids of the batch, its staging
+	 *            table is sized for them
+	 * @return id of the new batch
+	 */
 	@RequestMapping(value = "/create", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
-	public Long create() {
-		Batch batch = priceService.createBatch();
-		log.info("A new batch with id: {} has been created", batch.getId());
+	public Long create(@RequestParam(name = "sizeHint", defaultValue = "0") int sizeHint) {
+		Batch batch = priceService.createBatch(sizeHint);
+		log.debug("A new batch with id: {} has been created", batch.getId());
 		return batch.getId();
 	}
 
+	/**
+	 * @param id
+	 * @param seq
+	 *            sequence number of the chunk, the body is still parsed if it
+	 *            was applied already, the stream endpoint does not read it
+	 * @param prices
+	 * @throws IOException
+	 */
 	@RequestMapping(value = "/{id}/upload", method = RequestMethod.PUT)
 	@ResponseStatus(code=HttpStatus.NO_CONTENT)
-	public void upload(@PathVariable long id, @RequestBody List<Price> prices) {
-		log.info("Batch upload request received for id: {} with {} prices.", id, prices.size());
-		priceService.upload(id, prices);
-		log.info("Batch id: {} updated", id);
+	public void upload(@PathVariable long id, @RequestParam(name = "seq", required = false) Long seq,
+			@RequestBody List<Price> prices) throws IOException {
+		uploadChunk(id, seq, () -> priceService.upload(id, prices));
+	}
+
+	/**
+	 * Same as upload, but the prices are merged into the batch in blocks while
+	 * the request body is still being read.
+	 * 
+	 * @param id
+	 * @param seq
+	 *            sequence number of the chunk, optional
+	 * @param body
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/{id}/stream", method = RequestMethod.PUT, consumes = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseStatus(code=HttpStatus.NO_CONTENT)
+	public void stream(@PathVariable long id, @RequestParam(name = "seq", required = false) Long seq, InputStream body)
+			throws IOException {
+		uploadChunk(id, seq, () -> read(id, jsonPriceReader, body));
+	}
+
+	/**
+	 * Upload of prices in the binary format, merged into the batch in blocks
+	 * while the request body is being read.
+	 * 
+	 * @param id
+	 * @param seq
+	 *            sequence number of the chunk, optional
+	 * @param body
+	 * @throws IOException
+	 */
+	@RequestMapping(value = { "/{id}/upload", "/{id}/stream" }, method = RequestMethod.PUT, consumes = BinaryPriceFormat.MEDIA_TYPE_VALUE)
+	@ResponseStatus(code=HttpStatus.NO_CONTENT)
+	public void uploadBinary(@PathVariable long id, @RequestParam(name = "seq", required = false) Long seq,
+			InputStream body) throws IOException {
+		uploadChunk(id, seq, () -> read(id, binaryPriceReader, body));
+	}
+
+	/**
+	 * Same as stream, in JSON or in the binary format, but the request body is
+	 * read by a non blocking listener once the request is asynchronous. A slow
+	 * client does not hold a worker thread while its prices arrive, and a full
+	 * upload queue stops the reading instead of a thread.
+	 * 
+	 * @param id
+	 * @param seq
+	 *            sequence number of the chunk, optional
+	 * @param request
+	 * @return no content once the prices are staged
+	 */
+	@RequestMapping(value = "/{id}/async", method = RequestMethod.PUT, consumes = { MediaType.APPLICATION_JSON_VALUE,
+			BinaryPriceFormat.MEDIA_TYPE_VALUE })
+	public DeferredResult<ResponseEntity<Void>> uploadAsync(@PathVariable long id,
+			@RequestParam(name = "seq", required = false) Long seq, HttpServletRequest request) {
+		final DeferredResult<ResponseEntity<Void>> result = new DeferredResult<>(asyncTimeout);
+		if (seq != null) {
+			if (!priceService.claimChunk(id, seq)) {
+				result.setResult(ResponseEntity.noContent().build());
+				return result;
+			}
+			// the chunk is applied if the body was read, not on an error or a timeout
+			result.onCompletion(() -> priceService.finishChunk(id, seq, result.getResult() instanceof ResponseEntity));
+		}
+		final PriceReader reader = BinaryPriceFormat.MEDIA_TYPE.includes(MediaType.parseMediaType(request.getContentType()))
+				? binaryPriceReader : jsonPriceReader;
+		final Upload upload = uploadPipeline.openAsync(id, prices -> priceService.upload(id, prices));
+		final PriceDecoder decoder = reader.decoder(upload);
+		// the read listener can only be set once the request is asynchronous
+		WebAsyncUtils.getAsyncManager(request).registerDeferredResultInterceptor(UploadListener.class,
+				new DeferredResultProcessingInterceptor() {
+					@Override
+					public <T> void preProcess(NativeWebRequest webRequest, DeferredResult<T> deferredResult)
+							throws IOException {
+						final ServletInputStream in = request.getInputStream();
+						in.setReadListener(new UploadListener(in, decoder, upload, result));
+					}
+				});
+		return result;
 	}
 
+	/**
+	 * @param id
+	 * @return numbered chunks applied to the open batch
+	 */
+	@RequestMapping(value = "/{id}/chunks", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ChunkStatus chunks(@PathVariable long id) {
+		return priceService.getChunkStatus(id);
+	}
+
+	/**
+	 * The blocks of the batch still queued for a merge are merged first.
+	 * 
+	 * @param id
+	 */
 	@RequestMapping(value = "/{id}/commit", method = RequestMethod.PUT)
 	@ResponseStatus(code=HttpStatus.NO_CONTENT)
 	public void commit(@PathVariable long id) {
-		log.info("Batch commit request received for id: {}.", id);
+		uploadPipeline.awaitMerged(id);
 		priceService.commit(id);
-		log.info("Batch id: {} commited", id);
 	}
 
 	@RequestMapping(value = "/{id}/discard", method = RequestMethod.DELETE)
 	@ResponseStatus(code=HttpStatus.NO_CONTENT)
 	public void discard(@PathVariable long id) {
-		log.info("Batch discard request received for id: {}.", id);
 		priceService.discard(id);
-		log.info("Batch id: {} discarded", id);
+	}
+
+	/**
+	 * Read the prices of the body and merge them through the upload pipeline,
+	 * the blocks are merged when it returns.
+	 * 
+	 * @param id
+	 * @param reader
+	 * @param body
+	 * @throws IOException
+	 */
+	private void read(long id, PriceReader reader, InputStream body) throws IOException {
+		try (Upload upload = uploadPipeline.open(id, prices -> priceService.upload(id, prices))) {
+			reader.read(body, upload);
+		}
+	}
+
+	/**
+	 * Run the upload of a chunk, once unless it fails.
+	 * 
+	 * @param id
+	 * @param seq
+	 *            sequence number of the chunk, null if it is not numbered
+	 * @param upload
+	 * @throws IOException
+	 */
+	private void uploadChunk(long id, Long seq, ChunkUpload upload) throws IOException {
+		if (seq == null) {
+			upload.run();
+			return;
+		}
+		if (!priceService.claimChunk(id, seq)) {
+			log.debug("Chunk {} of the batch {} was applied already", seq, id);
+			return;
+		}
+		boolean applied = false;
+		try {
+			upload.run();
+			applied = true;
+		} finally {
+			priceService.finishChunk(id, seq, applied);
+		}
+	}
+
+	@FunctionalInterface
+	private interface ChunkUpload {
+
+		void run() throws IOException;
+
 	}
 
 }
@@ -1,15 +1,35 @@
 package com.batch.rest.api;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.batch.codec.BinaryPriceFormat;
+import com.batch.codec.JsonBulkCodec;
+import com.batch.component.PriceResponseCache;
+import com.batch.exception.PriceNotFoundException;
+import com.batch.feed.PriceFeed;
 import com.batch.model.Price;
 import com.batch.service.PriceService;
+import com.batch.store.PriceSnapshot;
 
 /**
  * Rest API for prices.
@@ -23,13 +43,113 @@ public class PriceController {
 
 	private static final Logger log = LoggerFactory.getLogger(PriceController.class);
 
+	static final String VERSION_HEADER = "X-Price-Version";
+
 	@Autowired
 	private PriceService priceService;
 
-	@RequestMapping(value = "/{id}", method = RequestMethod.GET)
-	Price getLatest(@PathVariable(name = "id", required = true) long priceId) {
-		log.debug("request received for price id: {}", priceId);
-		return priceService.getPrice(priceId);
+	@Autowired
+	private JsonBulkCodec jsonBulkCodec;
+
+	@Autowired
+	private PriceFeed priceFeed;
+
+	@Autowired
+	private PriceResponseCache responseCache;
+
+	/**
+	 * Prefix of the ETags of this instance. The versions start again after a
+	 * restart, so an ETag from before it must not match.
+	 */
+	private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+	/**
+	 * Latest price in JSON from the response cache. The ETag is the version of
+	 * the commit which merged the price, after the epoch of this instance, so a
+	 * client which sends it in If-None-Match gets a 304 until a commit changes
+	 * the price or the instance restarts.
+	 * 
+	 * @param priceId
+	 * @return JSON of the price
+	 */
+	@RequestMapping(value = "/{id}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	ResponseEntity<byte[]> getLatest(@PathVariable(name = "id", required = true) long priceId) {
+		final PriceResponseCache.Entry entry = responseCache.get(priceId);
+		if (entry == null) {
+			throw new PriceNotFoundException(priceId);
+		}
+		return ResponseEntity.ok().eTag(etag(entry.getVersion())).contentType(MediaType.APPLICATION_JSON_UTF8)
+				.body(entry.getJson());
+	}
+
+	/**
+	 * Latest price in the binary format with the same ETag.
+	 * 
+	 * @param priceId
+	 * @return price
+	 */
+	@RequestMapping(value = "/{id}", method = RequestMethod.GET, produces = BinaryPriceFormat.MEDIA_TYPE_VALUE)
+	ResponseEntity<Price> getLatestBinary(@PathVariable(name = "id", required = true) long priceId) {
+		for (;;) {
+			final long version = priceService.getPriceVersion(priceId);
+			final Price price = priceService.getPrice(priceId);
+			// versions only grow, so the price is the one of the version if it did not change in between
+			if (priceService.getPriceVersion(priceId) == version) {
+				return ResponseEntity.ok().eTag(etag(version)).body(price);
+			}
+		}
+	}
+
+	private String etag(long version) {
+		return "\"" + epoch + "-" + version + "\"";
+	}
+
+	@RequestMapping(value = "/{id}", params = "asOf", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE, BinaryPriceFormat.MEDIA_TYPE_VALUE })
+	Price getAsOf(@PathVariable(name = "id", required = true) long priceId,
+			@RequestParam("asOf") @DateTimeFormat(iso = ISO.DATE_TIME) LocalDateTime asOf) {
+		return priceService.getPrice(priceId, asOf);
+	}
+
+	@RequestMapping(value = "/{id}", params = "version", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE, BinaryPriceFormat.MEDIA_TYPE_VALUE })
+	Price getInVersion(@PathVariable(name = "id", required = true) long priceId,
+			@RequestParam("version") long version) {
+		return priceService.getPrice(priceId, version);
+	}
+
+	/**
+	 * Prices for a JSON array of ids, all from the committed version in the
+	 * version header. The response is written while the ids are read. In a
+	 * sharded deployment the ids of the other shards are answered with their
+	 * owner, to be read from it.
+	 * 
+	 * @param ids
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/bulk", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+	void getLatestBulk(InputStream ids, HttpServletResponse response) throws IOException {
+		try (PriceSnapshot snapshot = priceService.getSnapshot()) {
+			log.debug("bulk request received for version: {}", snapshot.getVersion());
+			response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+			response.setHeader(VERSION_HEADER, String.valueOf(snapshot.getVersion()));
+			jsonBulkCodec.write(snapshot, ids, response.getOutputStream(), priceService::getOwner);
+		}
+	}
+
+	/**
+	 * Server sent events of the prices merged by every following commit, a
+	 * commit event per version with its prices among the ids. An overflow event
+	 * ends the feed when the subscriber reads slower than the commits.
+	 * 
+	 * @param ids
+	 *            ids of the prices to send, all if absent
+	 * @return emitter of the events
+	 */
+	@RequestMapping(value = "/feed", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	SseEmitter subscribe(@RequestParam(name = "ids", required = false) Set<Long> ids) {
+		return priceFeed.subscribe(ids);
 	}
 
 }
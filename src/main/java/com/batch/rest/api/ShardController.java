@@ -0,0 +1,69 @@
+package com.batch.rest.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.batch.codec.BinaryPriceFormat;
+import com.batch.codec.BinaryPriceReader;
+import com.batch.service.impl.PriceServiceImpl;
+
+/**
+ * Rest API of a shard for the coordinator of a batch in a sharded deployment.
+ * The part of a batch on this shard only gets the prices of the ids it owns
+ * and is committed in two phases.
+ *
+ * @author faizanhussain
+ *
+ */
+@RestController
+@RequestMapping(path = "/shards/batches")
+@ConditionalOnProperty(name = "batch.shard.enabled", havingValue = "true")
+class ShardController {
+
+	@Autowired
+	private PriceServiceImpl priceService;
+
+	@Autowired
+	private BinaryPriceReader binaryPriceReader;
+
+	@RequestMapping(value = "/create", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+	public Long create(@RequestParam(name = "sizeHint", defaultValue = "0") int sizeHint) {
+		return priceService.createBatch(sizeHint).getId();
+	}
+
+	@RequestMapping(value = "/{id}/upload", method = RequestMethod.PUT, consumes = BinaryPriceFormat.MEDIA_TYPE_VALUE)
+	@ResponseStatus(code = HttpStatus.NO_CONTENT)
+	public void upload(@PathVariable long id, InputStream body) throws IOException {
+		binaryPriceReader.read(body, prices -> priceService.upload(id, prices));
+	}
+
+	@RequestMapping(value = "/{id}/prepare", method = RequestMethod.PUT)
+	@ResponseStatus(code = HttpStatus.NO_CONTENT)
+	public void prepare(@PathVariable long id) {
+		priceService.prepare(id);
+	}
+
+	@RequestMapping(value = "/{id}/commit", method = RequestMethod.PUT)
+	@ResponseStatus(code = HttpStatus.NO_CONTENT)
+	public void commit(@PathVariable long id) {
+		priceService.commitPrepared(id);
+	}
+
+	@RequestMapping(value = "/{id}/discard", method = RequestMethod.DELETE)
+	@ResponseStatus(code = HttpStatus.NO_CONTENT)
+	public void discard(@PathVariable long id) {
+		priceService.discard(id);
+	}
+
+}
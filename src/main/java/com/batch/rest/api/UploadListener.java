@@ -0,0 +1,104 @@
+package com.batch.rest.api;
+
+import java.io.IOException;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.batch.codec.PriceDecoder;
+import com.batch.component.UploadPipeline.Upload;
+
+/**
+ * Feeds the request body to a decoder whenever the container has bytes for it,
+ * so no thread waits for a slow client. While the upload queue of the batch is
+ * full the listener stops reading, and a merge worker reads on once it has
+ * room. The result is set when the body is read and its prices are merged, or
+ * when the upload fails and the prices queued before are merged.
+ * 
+ * @author faizanhussain
+ *
+ */
+final class UploadListener implements ReadListener {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final ServletInputStream in;
+	private final PriceDecoder decoder;
+	private final Upload upload;
+	private final DeferredResult<ResponseEntity<Void>> result;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private volatile boolean failed;
+
+	UploadListener(ServletInputStream in, PriceDecoder decoder, Upload upload,
+			DeferredResult<ResponseEntity<Void>> result) {
+		this.in = in;
+		this.decoder = decoder;
+		this.upload = upload;
+		this.result = result;
+	}
+
+	/**
+	 * Reads until the container has no more bytes or the upload queue is full.
+	 * The container calls again only once it had no bytes, so a stop on a full
+	 * queue leaves the reading to {@link #resume()}.
+	 */
+	@Override
+	public void onDataAvailable() throws IOException {
+		int read;
+		while (in.isReady() && (failed || !upload.awaitRoom(this::resume)) && (read = in.read(buffer)) != -1) {
+			if (!failed) {
+				try {
+					decoder.feed(buffer, 0, read);
+				} catch (IOException | RuntimeException e) {
+					onError(e);
+				}
+			}
+		}
+	}
+
+	private void resume() {
+		if (result.isSetOrExpired()) {
+			// timed out while the queue was full, nothing reads the rest
+			failed = true;
+			upload.close(failure -> {
+			});
+			return;
+		}
+		try {
+			onDataAvailable();
+		} catch (IOException | RuntimeException e) {
+			onError(e);
+		}
+	}
+
+	@Override
+	public void onAllDataRead() {
+		if (failed) {
+			return;
+		}
+		try {
+			decoder.end();
+		} catch (IOException | RuntimeException e) {
+			onError(e);
+			return;
+		}
+		upload.close(failure -> {
+			if (failure == null) {
+				result.setResult(ResponseEntity.noContent().build());
+			} else {
+				result.setErrorResult(failure);
+			}
+		});
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		failed = true;
+		// the upload failed already if it is closed
+		upload.close(failure -> result.setErrorResult(t));
+	}
+
+}
@@ -1,9 +1,12 @@
 package com.batch.service;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 import com.batch.model.Batch;
+import com.batch.model.ChunkStatus;
 import com.batch.model.Price;
+import com.batch.store.PriceSnapshot;
 
 /**
  * Interface for PriceService
@@ -13,14 +16,89 @@ import com.batch.model.Price;
  */
 public interface PriceService {
 
-	Batch createBatch();
+	default Batch createBatch() {
+		return createBatch(0);
+	}
+
+	/**
+	 * @param sizeHint
+	 *            expected number of distinct ids of the batch, 0 if unknown
+	 * @return new open batch
+	 */
+	Batch createBatch(int sizeHint);
 
 	void upload(long batchId, List<Price> prices);
 
+	/**
+	 * Claim a numbered chunk of the batch before it is uploaded.
+	 * 
+	 * @param batchId
+	 * @param sequence
+	 * @return false if the chunk was applied already and is not uploaded again
+	 */
+	boolean claimChunk(long batchId, long sequence);
+
+	/**
+	 * @param batchId
+	 * @param sequence
+	 *            of a claimed chunk
+	 * @param applied
+	 *            true if all its prices were uploaded, otherwise it can be
+	 *            claimed again
+	 */
+	void finishChunk(long batchId, long sequence, boolean applied);
+
+	/**
+	 * @param batchId
+	 * @return numbered chunks applied to the open batch
+	 */
+	ChunkStatus getChunkStatus(long batchId);
+
 	void commit(long batchId);
 
 	void discard(long batchId);
 
 	Price getPrice(long id);
 
+	/**
+	 * @param id
+	 * @return version of the commit which merged the latest price for the id
+	 */
+	long getPriceVersion(long id);
+
+	/**
+	 * Price as of an instant, from the price history.
+	 * 
+	 * @param id
+	 * @param asOf
+	 * @return latest committed price with an asOf not after the instant
+	 */
+	Price getPrice(long id, LocalDateTime asOf);
+
+	/**
+	 * Price in a committed version, from the price history.
+	 * 
+	 * @param id
+	 * @param version
+	 * @return price the id had when the version was published
+	 */
+	Price getPrice(long id, long version);
+
+	/**
+	 * Snapshot of the latest committed version, for reading many prices from
+	 * the same version.
+	 * 
+	 * @return snapshot to be closed after use
+	 */
+	PriceSnapshot getSnapshot();
+
+	/**
+	 * @param id
+	 * @return base url of the node which owns the id, or null if the snapshot
+	 *         of this node has its price
+	 */
+	default String getOwner(long id) {
+		return null;
+	}
+
 }
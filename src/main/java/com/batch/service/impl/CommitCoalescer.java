@@ -0,0 +1,194 @@
+package com.batch.service.impl;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.batch.component.BatchMetrics;
+import com.batch.model.Price;
+import com.batch.model.StagedPrices;
+
+/**
+ * Group commit of the batches. The first committer becomes the leader: it
+ * waits for the window, takes the batches which arrived in the meantime and
+ * publishes their prices as one commit of the store, in the order in which
+ * they arrived. The latest asOf wins for every id and an equal asOf keeps the
+ * earlier price, so the group publishes the same prices as the batches one
+ * after the other, under one version. The other committers wait for the leader
+ * and return the version of their group, or lead the next group.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.commit.coalesce.enabled", havingValue = "true")
+public class CommitCoalescer {
+
+	private static final Logger log = LoggerFactory.getLogger(CommitCoalescer.class);
+
+	private final long windowNanos;
+	private final int maxBatches;
+	private final BatchMetrics metrics;
+	private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+	private final Lock leader = new ReentrantLock();
+
+	/**
+	 * @param window
+	 *            milliseconds the leader waits for more batches, 0 takes the
+	 *            batches waiting already
+	 * @param maxBatches
+	 *            most batches of a group
+	 * @param metrics
+	 */
+	@Autowired
+	public CommitCoalescer(@Value("${batch.commit.coalesce.window:2}") long window,
+			@Value("${batch.commit.coalesce.max-batches:64}") int maxBatches, BatchMetrics metrics) {
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(window);
+		this.maxBatches = Math.max(1, maxBatches);
+		this.metrics = metrics;
+		log.info("Commits arriving within {} ms are published together, up to {} batches.", window, this.maxBatches);
+	}
+
+	/**
+	 * Publish the prices with the ones of the batches committed at the same
+	 * time. The prices are read until this returns, they are closed by the
+	 * caller.
+	 *
+	 * @param prices
+	 * @param publish
+	 *            publishes the prices of a group and returns the version
+	 * @return version which published the prices
+	 * @throws RuntimeException
+	 *             the failure of the publish of the group, as it was thrown
+	 */
+	public long commit(StagedPrices prices, ToLongFunction<Iterable<Price>> publish) {
+		final Pending commit = new Pending(prices);
+		pending.add(commit);
+		leader.lock();
+		try {
+			if (!commit.version.isDone() && windowNanos > 0 && pending.size() < maxBatches) {
+				LockSupport.parkNanos(windowNanos);
+			}
+			while (!commit.version.isDone()) {
+				publishGroup(publish);
+			}
+		} finally {
+			leader.unlock();
+		}
+		try {
+			return commit.version.get();
+		} catch (ExecutionException e) {
+			// the publish only fails with runtime exceptions, kept as they are for their response status
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Commit of the group of batches failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while committing", e);
+		}
+	}
+
+	private void publishGroup(ToLongFunction<Iterable<Price>> publish) {
+		final List<Pending> group = new ArrayList<>();
+		Pending next;
+		while (group.size() < maxBatches && (next = pending.poll()) != null) {
+			group.add(next);
+		}
+		try {
+			final long version = publish.applyAsLong(new Group(group));
+			metrics.recordCoalescedCommit(group.size());
+			for (Pending commit : group) {
+				commit.version.complete(version);
+			}
+		} catch (RuntimeException e) {
+			for (Pending commit : group) {
+				commit.version.completeExceptionally(e);
+			}
+		}
+	}
+
+	private static final class Pending {
+		private final StagedPrices prices;
+		private final CompletableFuture<Long> version = new CompletableFuture<>();
+
+		Pending(StagedPrices prices) {
+			this.prices = prices;
+		}
+	}
+
+	/**
+	 * Prices of the batches of a group, one batch after the other. Its size is
+	 * the sum of the sizes of the batches, so the store sees how large the group
+	 * is without reading it.
+	 */
+	private static final class Group extends AbstractCollection<Price> {
+		private final List<Pending> batches;
+
+		Group(List<Pending> batches) {
+			this.batches = batches;
+		}
+
+		@Override
+		public Iterator<Price> iterator() {
+			return new GroupIterator(batches);
+		}
+
+		@Override
+		public int size() {
+			long size = 0;
+			for (Pending batch : batches) {
+				size += batch.prices.size();
+			}
+			return (int) Math.min(size, Integer.MAX_VALUE);
+		}
+	}
+
+	private static final class GroupIterator implements Iterator<Price> {
+		private final Iterator<Pending> batches;
+		private Iterator<Price> prices = Collections.emptyIterator();
+
+		GroupIterator(List<Pending> group) {
+			this.batches = group.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!prices.hasNext()) {
+				if (!batches.hasNext()) {
+					return false;
+				}
+				prices = batches.next().prices.iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Price next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return prices.next();
+		}
+	}
+
+}
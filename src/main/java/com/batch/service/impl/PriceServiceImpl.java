@@ -1,20 +1,26 @@
 package com.batch.service.impl;
 
-import java.util.Collection;
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.batch.component.BatchMetrics;
 import com.batch.component.InMemoryCache;
+import com.batch.exception.HistoryNotEnabledException;
 import com.batch.exception.PriceNotFoundException;
+import com.batch.history.PriceHistory;
+import com.batch.journal.PriceJournal;
 import com.batch.model.Batch;
+import com.batch.model.ChunkStatus;
 import com.batch.model.Price;
-import com.batch.model.PriceFinder;
+import com.batch.model.StagedPrices;
 import com.batch.service.PriceService;
+import com.batch.store.PriceSnapshot;
+import com.batch.store.PriceStore;
 
 /**
  * 
@@ -25,44 +31,151 @@ import com.batch.service.PriceService;
 public class PriceServiceImpl implements PriceService {
 
 	private static final Logger log = LoggerFactory.getLogger(PriceServiceImpl.class);
-	private final ConcurrentHashMap<Long, Price> currentPrices = new ConcurrentHashMap<>();
 
 	@Autowired
 	private InMemoryCache cache;
 
+	@Autowired
+	private PriceStore currentPrices;
+
+	@Autowired
+	private BatchMetrics metrics;
+
+	@Autowired(required = false)
+	private PriceJournal journal;
+
+	@Autowired(required = false)
+	private PriceHistory history;
+
+	@Autowired(required = false)
+	private CommitCoalescer coalescer;
+
 	@Override
-	public Batch createBatch() {
-		return cache.create();
+	public Batch createBatch(int sizeHint) {
+		return cache.create(sizeHint);
 	}
 
 	@Override
 	public void upload(long batchId, List<Price> prices) {
-		cache.save(batchId, prices);
+		final long start = System.nanoTime();
+		final int stale = cache.save(batchId, prices);
+		metrics.recordUpload(start, prices.size(), stale);
+	}
+
+	@Override
+	public boolean claimChunk(long batchId, long sequence) {
+		final boolean claimed = cache.claimChunk(batchId, sequence);
+		if (!claimed) {
+			metrics.recordDuplicateChunk();
+		}
+		return claimed;
+	}
+
+	@Override
+	public void finishChunk(long batchId, long sequence, boolean applied) {
+		cache.finishChunk(batchId, sequence, applied);
+	}
+
+	@Override
+	public ChunkStatus getChunkStatus(long batchId) {
+		return cache.getChunkStatus(batchId);
 	}
 
 	@Override
 	public void commit(long batchId) {
-		log.info("Committing batch: {}", batchId);
-		final Collection<Price> batchPrices = cache.commit(batchId);
+		final long start = System.nanoTime();
+		publish(batchId, cache.commit(batchId), start);
+	}
+
+	/**
+	 * First phase of a commit across shards. The batch is closed, so it takes
+	 * no more uploads, and its latest prices are kept until they are published
+	 * by {@link #commitPrepared(long)} or dropped by a discard.
+	 * 
+	 * @param batchId
+	 */
+	public void prepare(long batchId) {
+		cache.prepare(batchId);
+	}
+
+	/**
+	 * Second phase of a commit across shards, publishes the prices of a
+	 * prepared batch.
+	 * 
+	 * @param batchId
+	 */
+	public void commitPrepared(long batchId) {
+		final long start = System.nanoTime();
+		publish(batchId, cache.commitPrepared(batchId), start);
+	}
+
+	private void publish(long batchId, StagedPrices staged, long start) {
+		final long version;
+		try (StagedPrices batchPrices = staged) {
+			version = coalescer == null ? publish(batchPrices) : coalescer.commit(batchPrices, this::publish);
+		}
+		metrics.recordCommit(start);
+		log.info("Batch: {} is now committed with version: {}", batchId, version);
+	}
 
-		batchPrices.forEach(price -> currentPrices.compute(price.getId(), new PriceFinder(price)));
-		log.info("Batch: {} is now committed", batchId);
+	private long publish(Iterable<Price> prices) {
+		return journal == null ? currentPrices.commit(prices) : journal.commit(prices);
 	}
 
 	@Override
 	public void discard(long batchId) {
-		log.info("Cancelling batch: {}", batchId);
-		cache.commit(batchId);
-		log.info("Batch: {} cancelled", batchId);
+		if (cache.discardPrepared(batchId)) {
+			log.info("Batch: {} cancelled after prepare", batchId);
+			return;
+		}
+		final long bytes = cache.discard(batchId);
+		log.info("Batch: {} cancelled, {} bytes reclaimed", batchId, bytes);
 	}
 
 	@Override
 	public Price getPrice(long id) {
 		final Price price = currentPrices.get(id);
-		log.info("Latest price for id: {} is:  {}", id, price);
 		if (price == null) {
 			throw new PriceNotFoundException(id);
 		}
 		return price;
 	}
+
+	@Override
+	public long getPriceVersion(long id) {
+		final long version = currentPrices.getVersion(id);
+		if (version == 0) {
+			throw new PriceNotFoundException(id);
+		}
+		return version;
+	}
+
+	@Override
+	public Price getPrice(long id, LocalDateTime asOf) {
+		return found(id, history().get(id, asOf));
+	}
+
+	@Override
+	public Price getPrice(long id, long version) {
+		return found(id, version > currentPrices.getVersion() ? null : history().get(id, version));
+	}
+
+	private PriceHistory history() {
+		if (history == null) {
+			throw new HistoryNotEnabledException();
+		}
+		return history;
+	}
+
+	private static Price found(long id, Price price) {
+		if (price == null) {
+			throw new PriceNotFoundException(id);
+		}
+		return price;
+	}
+
+	@Override
+	public PriceSnapshot getSnapshot() {
+		return currentPrices.snapshot();
+	}
 }
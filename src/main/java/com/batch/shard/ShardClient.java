@@ -0,0 +1,152 @@
+package com.batch.shard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import com.batch.codec.BinaryPriceFormat;
+import com.batch.exception.BatchNotFoundException;
+import com.batch.exception.PriceNotFoundException;
+import com.batch.exception.ShardUnavailableException;
+import com.batch.model.Price;
+
+/**
+ * Requests to the other nodes of a sharded deployment. The batch requests go
+ * to the participant API of a node under /shards, the price requests to the
+ * public API of the node which owns the id. A missing batch or price on the
+ * node is reported like a local one, any other failure as an unavailable
+ * shard.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.shard.enabled", havingValue = "true")
+public class ShardClient {
+
+	static final String BATCHES = "/shards/batches/";
+
+	private final RestTemplate restTemplate;
+
+	/**
+	 * @param builder
+	 * @param timeout
+	 *            milliseconds to connect to a node and to read its response
+	 */
+	@Autowired
+	public ShardClient(RestTemplateBuilder builder, @Value("${batch.shard.timeout:10000}") long timeout) {
+		this.restTemplate = builder.setConnectTimeout((int) timeout).setReadTimeout((int) timeout).build();
+	}
+
+	/**
+	 * @param node
+	 * @param sizeHint
+	 *            expected number of distinct ids on the node
+	 * @return id of a new batch on the node
+	 */
+	public long create(String node, int sizeHint) {
+		return call(node,
+				() -> restTemplate.postForObject(node + BATCHES + "create?sizeHint=" + sizeHint, null, Long.class),
+				null);
+	}
+
+	/**
+	 * @param node
+	 * @param batchId
+	 *            id of the batch on the coordinator, for the errors
+	 * @param shardBatchId
+	 *            id of the batch on the node
+	 * @param prices
+	 */
+	public void upload(String node, long batchId, long shardBatchId, List<Price> prices) {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream(prices.size() * 64);
+		try (DataOutputStream out = new DataOutputStream(body)) {
+			for (Price price : prices) {
+				BinaryPriceFormat.write(price, out);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(BinaryPriceFormat.MEDIA_TYPE);
+		batch(node, batchId, shardBatchId, "/upload", HttpMethod.PUT, new HttpEntity<>(body.toByteArray(), headers));
+	}
+
+	public void prepare(String node, long batchId, long shardBatchId) {
+		batch(node, batchId, shardBatchId, "/prepare", HttpMethod.PUT, null);
+	}
+
+	public void commit(String node, long batchId, long shardBatchId) {
+		batch(node, batchId, shardBatchId, "/commit", HttpMethod.PUT, null);
+	}
+
+	public void discard(String node, long batchId, long shardBatchId) {
+		batch(node, batchId, shardBatchId, "/discard", HttpMethod.DELETE, null);
+	}
+
+	public Price getPrice(String node, long id) {
+		return getPrice(node, id, "");
+	}
+
+	public Price getPrice(String node, long id, LocalDateTime asOf) {
+		return getPrice(node, id, "?asOf=" + asOf);
+	}
+
+	public Price getPrice(String node, long id, long version) {
+		return getPrice(node, id, "?version=" + version);
+	}
+
+	/**
+	 * @param node
+	 * @param id
+	 * @return version in the ETag of the latest price, after the epoch of the
+	 *         node
+	 */
+	public long getPriceVersion(String node, long id) {
+		final String etag = call(node, () -> restTemplate.headForHeaders(node + "/prices/" + id).getETag(),
+				() -> new PriceNotFoundException(id));
+		return Long.parseLong(etag.substring(etag.lastIndexOf('-') + 1, etag.lastIndexOf('"')));
+	}
+
+	private Price getPrice(String node, long id, String query) {
+		return call(node, () -> restTemplate.getForObject(node + "/prices/" + id + query, Price.class),
+				() -> new PriceNotFoundException(id));
+	}
+
+	private void batch(String node, long batchId, long shardBatchId, String action, HttpMethod method,
+			HttpEntity<?> body) {
+		call(node, () -> restTemplate.exchange(node + BATCHES + shardBatchId + action, method, body, Void.class),
+				() -> new BatchNotFoundException(batchId));
+	}
+
+	private static <T> T call(String node, Supplier<T> request, Supplier<RuntimeException> notFound) {
+		try {
+			return request.get();
+		} catch (HttpStatusCodeException e) {
+			if (notFound != null && e.getStatusCode() == HttpStatus.NOT_FOUND) {
+				throw notFound.get();
+			}
+			throw new ShardUnavailableException(node, e);
+		} catch (RestClientException e) {
+			throw new ShardUnavailableException(node, e);
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.batch.shard;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Redirects a read of a price whose id is owned by another shard to that
+ * shard, with a temporary redirect so the client keeps asking the node it
+ * knows. The owner answers it from its own response cache and history, with
+ * its ETag.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.shard.enabled", havingValue = "true")
+public class ShardReadRedirect implements HandlerInterceptor, WebMvcConfigurer {
+
+	@Autowired
+	private ShardRouter router;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(this).addPathPatterns("/prices/*").excludePathPatterns("/prices/bulk",
+				"/prices/feed");
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (!HttpMethod.GET.matches(request.getMethod()) && !HttpMethod.HEAD.matches(request.getMethod())) {
+			return true;
+		}
+		final String uri = request.getRequestURI();
+		final long id;
+		try {
+			id = Long.parseLong(uri.substring(uri.lastIndexOf('/') + 1));
+		} catch (NumberFormatException e) {
+			return true;
+		}
+		if (router.isLocal(id)) {
+			return true;
+		}
+		final String query = request.getQueryString();
+		response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+		response.setHeader(HttpHeaders.LOCATION,
+				router.node(router.owner(id)) + uri + (query == null ? "" : "?" + query));
+		return false;
+	}
+
+}
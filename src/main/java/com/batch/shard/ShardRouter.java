@@ -0,0 +1,69 @@
+package com.batch.shard;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owner of every price id in a sharded deployment. The ids are hash
+ * partitioned across the nodes, which all have the same list of nodes in the
+ * same order.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.shard.enabled", havingValue = "true")
+public class ShardRouter {
+
+	private final String[] nodes;
+	private final int index;
+
+	/**
+	 * @param nodes
+	 *            base urls of all the nodes, like http://localhost:8080
+	 * @param index
+	 *            position of this node in the nodes
+	 */
+	public ShardRouter(@Value("${batch.shard.nodes}") String[] nodes, @Value("${batch.shard.index}") int index) {
+		if (index < 0 || index >= nodes.length) {
+			throw new IllegalArgumentException(
+					String.format("The shard index %s is not one of the %s nodes.", index, nodes.length));
+		}
+		this.nodes = new String[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			this.nodes[i] = nodes[i].trim().replaceAll("/+$", "");
+		}
+		this.index = index;
+	}
+
+	/**
+	 * @param id
+	 * @return shard of the price id
+	 */
+	public int owner(long id) {
+		final long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 32) % nodes.length);
+	}
+
+	public boolean isLocal(long id) {
+		return owner(id) == index;
+	}
+
+	/**
+	 * @param shard
+	 * @return base url of the node of the shard
+	 */
+	public String node(int shard) {
+		return nodes[shard];
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int size() {
+		return nodes.length;
+	}
+
+}
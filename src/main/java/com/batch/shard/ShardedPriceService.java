@@ -0,0 +1,231 @@
+package com.batch.shard;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import com.batch.exception.BatchNotFoundException;
+import com.batch.model.Batch;
+import com.batch.model.ChunkStatus;
+import com.batch.model.Price;
+import com.batch.service.PriceService;
+import com.batch.service.impl.PriceServiceImpl;
+import com.batch.store.PriceSnapshot;
+
+/**
+ * Price service of a node in a sharded deployment. The node which creates a
+ * batch is its coordinator: it creates a part of the batch on every shard,
+ * sends every uploaded price to the part of the shard which owns its id, and
+ * commits the parts with a two phase commit. Either every shard publishes its
+ * part or none does. The reads of an id are answered by the shard which owns
+ * it, snapshots are of the local shard only and the bulk reads name the owner
+ * of the ids of the other shards.
+ *
+ * @author faizanhussain
+ *
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "batch.shard.enabled", havingValue = "true")
+public class ShardedPriceService implements PriceService {
+
+	private static final Logger log = LoggerFactory.getLogger(ShardedPriceService.class);
+
+	@Autowired
+	private PriceServiceImpl local;
+
+	@Autowired
+	private ShardRouter router;
+
+	@Autowired
+	private ShardClient client;
+
+	/**
+	 * Ids of the parts on every shard of the batches this node coordinates, by
+	 * the id of the local part.
+	 */
+	private final Map<Long, long[]> parts = new ConcurrentHashMap<>();
+
+	@Override
+	public Batch createBatch(int sizeHint) {
+		// the ids are spread evenly across the shards
+		final int shardSizeHint = (sizeHint + router.size() - 1) / router.size();
+		final Batch batch = local.createBatch(shardSizeHint);
+		final long[] shardBatchIds = new long[router.size()];
+		for (int shard = 0; shard < shardBatchIds.length; shard++) {
+			try {
+				shardBatchIds[shard] = shard == router.getIndex() ? batch.getId()
+						: client.create(router.node(shard), shardSizeHint);
+			} catch (RuntimeException e) {
+				discard(batch.getId(), shardBatchIds);
+				throw e;
+			}
+		}
+		parts.put(batch.getId(), shardBatchIds);
+		return batch;
+	}
+
+	@Override
+	public void upload(long batchId, List<Price> prices) {
+		final long[] shardBatchIds = parts(batchId);
+		final List<List<Price>> byShard = new ArrayList<>(shardBatchIds.length);
+		for (int shard = 0; shard < shardBatchIds.length; shard++) {
+			byShard.add(new ArrayList<>(prices.size() / shardBatchIds.length + 1));
+		}
+		for (Price price : prices) {
+			byShard.get(router.owner(price.getId())).add(price);
+		}
+		for (int shard = 0; shard < shardBatchIds.length; shard++) {
+			final List<Price> shardPrices = byShard.get(shard);
+			if (shardPrices.isEmpty()) {
+				continue;
+			}
+			if (shard == router.getIndex()) {
+				local.upload(batchId, shardPrices);
+			} else {
+				client.upload(router.node(shard), batchId, shardBatchIds[shard], shardPrices);
+			}
+		}
+	}
+
+	/**
+	 * The numbered chunks are tracked by the coordinator in its local part. A
+	 * chunk which failed on one of the shards is sent to all of them again when
+	 * it is retried, the latest price wins so merging it twice does no harm.
+	 */
+	@Override
+	public boolean claimChunk(long batchId, long sequence) {
+		parts(batchId);
+		return local.claimChunk(batchId, sequence);
+	}
+
+	@Override
+	public void finishChunk(long batchId, long sequence, boolean applied) {
+		local.finishChunk(batchId, sequence, applied);
+	}
+
+	@Override
+	public ChunkStatus getChunkStatus(long batchId) {
+		parts(batchId);
+		return local.getChunkStatus(batchId);
+	}
+
+	/**
+	 * Every shard prepares its part first, which closes it for uploads. If one
+	 * of them fails all the parts are discarded, otherwise every shard
+	 * publishes its part.
+	 */
+	@Override
+	public void commit(long batchId) {
+		final long[] shardBatchIds = parts.remove(batchId);
+		if (shardBatchIds == null) {
+			throw new BatchNotFoundException(batchId);
+		}
+		try {
+			for (int shard = 0; shard < shardBatchIds.length; shard++) {
+				if (shard == router.getIndex()) {
+					local.prepare(batchId);
+				} else {
+					client.prepare(router.node(shard), batchId, shardBatchIds[shard]);
+				}
+			}
+		} catch (RuntimeException e) {
+			log.warn("Batch: {} is discarded because a shard failed to prepare it", batchId);
+			discard(batchId, shardBatchIds);
+			throw e;
+		}
+		RuntimeException failure = null;
+		for (int shard = 0; shard < shardBatchIds.length; shard++) {
+			try {
+				if (shard == router.getIndex()) {
+					local.commitPrepared(batchId);
+				} else {
+					client.commit(router.node(shard), batchId, shardBatchIds[shard]);
+				}
+			} catch (RuntimeException e) {
+				// the other shards have published their parts already or will, so carry on
+				log.error("Batch: {} is prepared but not committed on the shard at {}", batchId, router.node(shard), e);
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public void discard(long batchId) {
+		final long[] shardBatchIds = parts.remove(batchId);
+		if (shardBatchIds == null) {
+			throw new BatchNotFoundException(batchId);
+		}
+		discard(batchId, shardBatchIds);
+	}
+
+	/**
+	 * Discards the parts which were created, the failures are only logged.
+	 */
+	private void discard(long batchId, long[] shardBatchIds) {
+		for (int shard = 0; shard < shardBatchIds.length; shard++) {
+			try {
+				if (shard == router.getIndex()) {
+					local.discard(batchId);
+				} else if (shardBatchIds[shard] != 0) {
+					client.discard(router.node(shard), batchId, shardBatchIds[shard]);
+				}
+			} catch (RuntimeException e) {
+				log.warn("Batch: {} could not be discarded on the shard at {}", batchId, router.node(shard), e);
+			}
+		}
+	}
+
+	private long[] parts(long batchId) {
+		final long[] shardBatchIds = parts.get(batchId);
+		if (shardBatchIds == null) {
+			throw new BatchNotFoundException(batchId);
+		}
+		return shardBatchIds;
+	}
+
+	@Override
+	public Price getPrice(long id) {
+		return router.isLocal(id) ? local.getPrice(id) : client.getPrice(router.node(router.owner(id)), id);
+	}
+
+	@Override
+	public long getPriceVersion(long id) {
+		return router.isLocal(id) ? local.getPriceVersion(id)
+				: client.getPriceVersion(router.node(router.owner(id)), id);
+	}
+
+	@Override
+	public Price getPrice(long id, LocalDateTime asOf) {
+		return router.isLocal(id) ? local.getPrice(id, asOf) : client.getPrice(router.node(router.owner(id)), id, asOf);
+	}
+
+	@Override
+	public Price getPrice(long id, long version) {
+		return router.isLocal(id) ? local.getPrice(id, version)
+				: client.getPrice(router.node(router.owner(id)), id, version);
+	}
+
+	@Override
+	public PriceSnapshot getSnapshot() {
+		return local.getSnapshot();
+	}
+
+	@Override
+	public String getOwner(long id) {
+		return router.isLocal(id) ? null : router.node(router.owner(id));
+	}
+
+}
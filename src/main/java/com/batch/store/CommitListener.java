@@ -0,0 +1,35 @@
+package com.batch.store;
+
+import java.util.List;
+
+import com.batch.model.Price;
+
+/**
+ * Listener for the prices which a commit merged into the store.
+ *
+ * @author faizanhussain
+ *
+ */
+public interface CommitListener {
+
+	/**
+	 * Called once the version is published, under the commit lock, so the
+	 * calls are in the order of the versions. It must not block.
+	 *
+	 * @param version
+	 * @param merged
+	 *            prices which replaced or added a price, in the order they
+	 *            were merged
+	 */
+	void onCommit(long version, List<Price> merged);
+
+	/**
+	 * The merged prices are only gathered while a listener is listening.
+	 *
+	 * @return false if the following commit can be skipped
+	 */
+	default boolean isListening() {
+		return true;
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.batch.store;
+
+import java.util.function.Consumer;
+
+import com.batch.model.Price;
+
+/**
+ * Read view of one published version of a price store. Every read from it sees
+ * that version, no matter how many commits are published meanwhile. It has to
+ * be closed so the store can drop what only this snapshot still needs.
+ *
+ * @author faizanhussain
+ *
+ */
+public interface PriceSnapshot extends AutoCloseable {
+
+	long getVersion();
+
+	/**
+	 * Price for the id in the version of this snapshot.
+	 *
+	 * @param id
+	 * @return price or null if the id is unknown in this version
+	 */
+	Price get(long id);
+
+	/**
+	 * Every price in the version of this snapshot, in no particular order.
+	 *
+	 * @param action
+	 */
+	void forEach(Consumer<Price> action);
+
+	@Override
+	void close();
+
+}
@@ -0,0 +1,69 @@
+package com.batch.store;
+
+import com.batch.model.Price;
+
+/**
+ * Store for the committed prices. A commit is published under a new version
+ * and becomes visible to the readers all at once. Readers never block.
+ *
+ * @author faizanhussain
+ *
+ */
+public interface PriceStore {
+
+	/**
+	 * Merge the prices into the store under a new version and publish it. The
+	 * latest asOf wins for every id.
+	 *
+	 * @param prices
+	 * @return the published version
+	 */
+	long commit(Iterable<Price> prices);
+
+	/**
+	 * Latest price for the id in the published version.
+	 *
+	 * @param id
+	 * @return price or null if the id is unknown
+	 */
+	Price get(long id);
+
+	/**
+	 * Snapshot of the published version for consistent reads of many prices.
+	 *
+	 * @return snapshot to be closed after use
+	 */
+	PriceSnapshot snapshot();
+
+	long getVersion();
+
+	/**
+	 * Version of the commit which merged the latest price for the id, it
+	 * changes whenever the price does.
+	 *
+	 * @param id
+	 * @return version or 0 if the id is unknown
+	 */
+	long getVersion(long id);
+
+	int size();
+
+	/**
+	 * @return number of committed prices which replaced or added a price
+	 */
+	long getMergedCount();
+
+	/**
+	 * @return number of committed prices which were older than the stored price
+	 */
+	long getStaleCount();
+
+	StoreFootprint getFootprint();
+
+	/**
+	 * @param listener
+	 *            called for every following commit
+	 */
+	void addListener(CommitListener listener);
+
+}
@@ -0,0 +1,74 @@
+package com.batch.store;
+
+/**
+ * Memory used by a price store, compared with the estimate for the same prices
+ * held as a ConcurrentHashMap of Long to Price on the heap.
+ *
+ * @author faizanhussain
+ *
+ */
+public class StoreFootprint {
+
+	/**
+	 * Estimated heap bytes of one price in the map layout, without the payload:
+	 * map node, boxed key, table slot, Price, LocalDateTime, LocalDate,
+	 * LocalTime and the array header of the payload bytes.
+	 */
+	public static final long MAP_LAYOUT_BYTES_PER_PRICE = 32 + 16 + 8 + 32 + 24 + 24 + 24 + 16;
+
+	private final String store;
+	private final long prices;
+	private final long payloadLength;
+	private final long heapBytes;
+	private final long offHeapBytes;
+
+	public StoreFootprint(String store, long prices, long payloadLength, long heapBytes, long offHeapBytes) {
+		this.store = store;
+		this.prices = prices;
+		this.payloadLength = payloadLength;
+		this.heapBytes = heapBytes;
+		this.offHeapBytes = offHeapBytes;
+	}
+
+	public String getStore() {
+		return store;
+	}
+
+	public long getPrices() {
+		return prices;
+	}
+
+	public long getPayloadLength() {
+		return payloadLength;
+	}
+
+	public long getHeapBytes() {
+		return heapBytes;
+	}
+
+	public long getOffHeapBytes() {
+		return offHeapBytes;
+	}
+
+	public long getBytesPerPrice() {
+		return prices == 0 ? 0 : (heapBytes + offHeapBytes) / prices;
+	}
+
+	/**
+	 * @return estimated bytes per price of the map layout
+	 */
+	public long getMapLayoutBytesPerPrice() {
+		return prices == 0 ? 0 : MAP_LAYOUT_BYTES_PER_PRICE + align(payloadLength / prices);
+	}
+
+	public static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	@Override
+	public String toString() {
+		return "StoreFootprint [store=" + store + ", prices=" + prices + ", bytesPerPrice=" + getBytesPerPrice()
+				+ ", mapLayoutBytesPerPrice=" + getMapLayoutBytesPerPrice() + "]";
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.batch.store.impl;
+
+import java.time.LocalDateTime;
+
+import com.batch.model.Price;
+
+/**
+ * Price as it is kept by the store when its payload is deflated. Its payload
+ * bytes are the deflated ones, it never leaves the store, a read inflates it
+ * with {@link PayloadCompactor#expand(Price)}.
+ *
+ * @author faizanhussain
+ *
+ */
+final class DeflatedPrice extends Price {
+
+	private final int payloadLength;
+	private final byte[] dictionary;
+
+	/**
+	 * @param id
+	 * @param asOf
+	 * @param deflated
+	 * @param payloadLength
+	 *            of the inflated payload
+	 * @param dictionary
+	 *            preset dictionary of the deflater or null
+	 */
+	DeflatedPrice(long id, LocalDateTime asOf, byte[] deflated, int payloadLength, byte[] dictionary) {
+		super(id, asOf, deflated);
+		this.payloadLength = payloadLength;
+		this.dictionary = dictionary;
+	}
+
+	int getPayloadLength() {
+		return payloadLength;
+	}
+
+	byte[] getDictionary() {
+		return dictionary;
+	}
+
+}
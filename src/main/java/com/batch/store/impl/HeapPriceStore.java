@@ -0,0 +1,444 @@
+package com.batch.store.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.Price;
+import com.batch.model.PriceFinder;
+import com.batch.model.StagedPrices;
+import com.batch.store.CommitListener;
+import com.batch.store.PriceSnapshot;
+import com.batch.store.PriceStore;
+import com.batch.store.StoreFootprint;
+
+/**
+ * Versioned price store on the heap. Every commit is written under a new
+ * version and becomes visible to the readers all at once when that version is
+ * published. Readers never block, they only look at the nodes with a version
+ * which is already published. The nodes of a commit which fails are taken
+ * back before the next one reuses its version.
+ * 
+ * A commit cuts the chain of a price behind the newest node which every reader
+ * can still see. Open snapshots pin their version so the nodes they need are
+ * kept until they are closed.
+ * 
+ * A commit with at least the parallel threshold of prices is partitioned by
+ * the hash of the id, so every price of an id is in the same partition, and
+ * the partitions are merged by a fork join pool.
+ * 
+ * The prices are kept as the {@link PayloadCompactor} compacts them and
+ * expanded when they are read.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.store.type", havingValue = "heap", matchIfMissing = true)
+public class HeapPriceStore implements PriceStore {
+
+	/**
+	 * Heap bytes of a version node on top of the map layout.
+	 */
+	private static final long NODE_BYTES = 32;
+
+	/**
+	 * Marks the end of a chain which has been cut by a later commit. A reader
+	 * which reaches it is older than the chain and has to retry with the latest
+	 * published version.
+	 */
+	private static final Node TRUNCATED = new Node(null, Long.MIN_VALUE, null);
+
+	private final ConcurrentHashMap<Long, Node> heads = new ConcurrentHashMap<>();
+	private final Set<Snapshot> snapshots = ConcurrentHashMap.newKeySet();
+	private final List<CommitListener> listeners = new CopyOnWriteArrayList<>();
+	private final Lock commitLock = new ReentrantLock();
+	private volatile long publishedVersion;
+	private volatile long payloadLength;
+	private volatile long mergedCount;
+	private volatile long staleCount;
+	private final int parallelThreshold;
+	private final ForkJoinPool pool;
+	private final PayloadCompactor payloads;
+
+	public HeapPriceStore() {
+		this(0, 1);
+	}
+
+	public HeapPriceStore(int parallelThreshold, int parallelism) {
+		this(parallelThreshold, parallelism, new PayloadCompactor());
+	}
+
+	/**
+	 * @param parallelThreshold
+	 *            number of prices from which a commit is merged in parallel, 0
+	 *            to always merge sequentially
+	 * @param parallelism
+	 *            threads merging a parallel commit
+	 * @param payloads
+	 *            compactor of the payloads
+	 */
+	@Autowired
+	public HeapPriceStore(@Value("${batch.commit.parallel-threshold:0}") int parallelThreshold,
+			@Value("${batch.commit.parallelism:0}") int parallelism, PayloadCompactor payloads) {
+		this.parallelThreshold = parallelThreshold;
+		this.payloads = payloads;
+		this.pool = parallelThreshold > 0
+				? new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors())
+				: null;
+	}
+
+	@Override
+	public long commit(Iterable<Price> prices) {
+		commitLock.lock();
+		try {
+			final long version = publishedVersion + 1;
+			final long oldestVersion = getOldestVersion();
+			final boolean collect = isListened();
+			final Merge merge;
+			try {
+				merge = isParallel(prices) ? mergeParallel(prices, version, oldestVersion, collect)
+						: new Merge(prices, version, oldestVersion, collect).call();
+			} catch (RuntimeException | Error e) {
+				rollback(version);
+				throw e;
+			}
+			publishedVersion = version;
+			payloadLength += merge.payloadLength;
+			mergedCount += merge.merged;
+			staleCount += merge.stale;
+			if (collect) {
+				for (CommitListener listener : listeners) {
+					listener.onCommit(version, merge.mergedPrices);
+				}
+			}
+			return version;
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	@Override
+	public void addListener(CommitListener listener) {
+		listeners.add(listener);
+	}
+
+	private boolean isListened() {
+		for (CommitListener listener : listeners) {
+			if (listener.isListening()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@PreDestroy
+	public void close() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Override
+	public Price get(long id) {
+		for (;;) {
+			final Node node = find(heads.get(id), publishedVersion);
+			if (node != TRUNCATED) {
+				return node == null ? null : payloads.expand(node.price);
+			}
+		}
+	}
+
+	@Override
+	public long getVersion(long id) {
+		for (;;) {
+			final Node node = find(heads.get(id), publishedVersion);
+			if (node != TRUNCATED) {
+				return node == null ? 0 : node.version;
+			}
+		}
+	}
+
+	@Override
+	public PriceSnapshot snapshot() {
+		for (;;) {
+			final Snapshot snapshot = new Snapshot(publishedVersion);
+			snapshots.add(snapshot);
+			// a commit which started before the pin was added may not see it, unless nothing was published since
+			if (snapshot.version == publishedVersion) {
+				return snapshot;
+			}
+			snapshots.remove(snapshot);
+		}
+	}
+
+	@Override
+	public long getVersion() {
+		return publishedVersion;
+	}
+
+	@Override
+	public int size() {
+		return heads.size();
+	}
+
+	@Override
+	public long getMergedCount() {
+		return mergedCount;
+	}
+
+	@Override
+	public long getStaleCount() {
+		return staleCount;
+	}
+
+	@Override
+	public StoreFootprint getFootprint() {
+		final long prices = heads.size();
+		final long payload = payloadLength;
+		final long heapBytes = prices * (StoreFootprint.MAP_LAYOUT_BYTES_PER_PRICE + NODE_BYTES) + payload;
+		return new StoreFootprint("heap", prices, payload, heapBytes, 0);
+	}
+
+	private long getOldestVersion() {
+		long oldestVersion = publishedVersion;
+		for (Snapshot snapshot : snapshots) {
+			oldestVersion = Math.min(oldestVersion, snapshot.version);
+		}
+		return oldestVersion;
+	}
+
+	/**
+	 * Prices which can't be counted without reading them, like the snapshot
+	 * loaded on recovery, are merged in parallel.
+	 */
+	private boolean isParallel(Iterable<Price> prices) {
+		if (pool == null) {
+			return false;
+		}
+		if (prices instanceof Collection) {
+			return ((Collection<?>) prices).size() >= parallelThreshold;
+		}
+		if (prices instanceof StagedPrices) {
+			return ((StagedPrices) prices).size() >= parallelThreshold;
+		}
+		return true;
+	}
+
+	private Merge mergeParallel(Iterable<Price> prices, long version, long oldestVersion, boolean collect) {
+		final int parallelism = pool.getParallelism();
+		final List<List<Price>> partitions = new ArrayList<>(parallelism);
+		for (int i = 0; i < parallelism; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		for (Price price : prices) {
+			partitions.get(partition(price.getId(), parallelism)).add(price);
+		}
+		final List<Merge> merges = new ArrayList<>(parallelism);
+		for (List<Price> partition : partitions) {
+			merges.add(new Merge(partition, version, oldestVersion, collect));
+		}
+		final Merge total = new Merge(null, version, oldestVersion, collect);
+		try {
+			for (Future<Merge> merge : pool.invokeAll(merges)) {
+				total.add(merge.get());
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Parallel commit of version " + version + " failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Parallel commit of version " + version + " was interrupted", e);
+		}
+		return total;
+	}
+
+	/**
+	 * Takes back the nodes of a version which failed to merge, so the next
+	 * commit does not publish them under the same version. A node of the
+	 * version is the head of its id and its previous node is the head before
+	 * the commit.
+	 */
+	private void rollback(long version) {
+		for (Map.Entry<Long, Node> entry : heads.entrySet()) {
+			final Node head = entry.getValue();
+			if (head.version == version) {
+				if (head.prev == null) {
+					heads.remove(entry.getKey(), head);
+				} else {
+					heads.replace(entry.getKey(), head, head.prev);
+				}
+			}
+		}
+	}
+
+	private static int partition(long id, int partitions) {
+		final long hash = id * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 32) % partitions);
+	}
+
+	/**
+	 * Only readers older than the first node visible to the oldest reader need
+	 * the rest of the chain, they retry with a newer version.
+	 */
+	private static void truncate(Node node, long oldestVersion) {
+		while (node.version > oldestVersion) {
+			node = node.prev;
+			if (node == null || node == TRUNCATED) {
+				return;
+			}
+		}
+		if (node.prev != null) {
+			node.prev = TRUNCATED;
+		}
+	}
+
+	private static Node find(Node node, long version) {
+		while (node != null && node.version > version) {
+			node = node.prev;
+		}
+		return node;
+	}
+
+	/**
+	 * Merges prices into the store under a new version, the counts are added to
+	 * the store once the version is published.
+	 */
+	private final class Merge implements Callable<Merge> {
+		private final Iterable<Price> prices;
+		private final long version;
+		private final long oldestVersion;
+		private long merged;
+		private long stale;
+		private long payloadLength;
+		private final List<Price> mergedPrices;
+
+		Merge(Iterable<Price> prices, long version, long oldestVersion, boolean collect) {
+			this.prices = prices;
+			this.version = version;
+			this.oldestVersion = oldestVersion;
+			this.mergedPrices = collect ? new ArrayList<>() : null;
+		}
+
+		@Override
+		public Merge call() {
+			for (Price price : prices) {
+				if (merge(price)) {
+					merged++;
+					if (mergedPrices != null) {
+						mergedPrices.add(price);
+					}
+				} else {
+					stale++;
+				}
+			}
+			return this;
+		}
+
+		void add(Merge other) {
+			merged += other.merged;
+			stale += other.stale;
+			payloadLength += other.payloadLength;
+			if (mergedPrices != null) {
+				mergedPrices.addAll(other.mergedPrices);
+			}
+		}
+
+		private boolean merge(Price price) {
+			final Node head = heads.get(price.getId());
+			if (head == null) {
+				final Price stored = payloads.compact(price);
+				heads.put(price.getId(), new Node(stored, version, null));
+				payloadLength += payloadLength(stored);
+				return true;
+			}
+			if (!PriceFinder.isNewPrice(head.price, price)) {
+				return false;
+			}
+			final Price stored = payloads.compact(price);
+			if (head.version == version) {
+				heads.put(price.getId(), new Node(stored, version, head.prev));
+			} else {
+				heads.put(price.getId(), new Node(stored, version, head));
+				truncate(head, oldestVersion);
+			}
+			payloadLength += payloadLength(stored) - payloadLength(head.price);
+			return true;
+		}
+	}
+
+	private static int payloadLength(Price stored) {
+		final byte[] payload = stored.getPayloadBytes();
+		return payload == null ? 0 : payload.length;
+	}
+
+	private final class Snapshot implements PriceSnapshot {
+		private final long version;
+
+		Snapshot(long version) {
+			this.version = version;
+		}
+
+		@Override
+		public long getVersion() {
+			return version;
+		}
+
+		@Override
+		public Price get(long id) {
+			final Node node = find(heads.get(id), version);
+			if (node == TRUNCATED) {
+				throw new IllegalStateException("Version " + version + " of price " + id + " is no longer available.");
+			}
+			return node == null ? null : payloads.expand(node.price);
+		}
+
+		@Override
+		public void forEach(Consumer<Price> action) {
+			for (Node head : heads.values()) {
+				final Node node = find(head, version);
+				if (node == TRUNCATED) {
+					throw new IllegalStateException("Version " + version + " is no longer available.");
+				}
+				if (node != null) {
+					action.accept(payloads.expand(node.price));
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			snapshots.remove(this);
+		}
+	}
+
+	private static final class Node {
+		private final Price price;
+		private final long version;
+		private volatile Node prev;
+
+		Node(Price price, long version, Node prev) {
+			this.price = price;
+			this.version = version;
+			this.prev = prev;
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.batch.store.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open addressing index from a primitive long id to a non zero address. It has
+ * a single writer and any number of readers. The key of a slot is written
+ * before its address, so a reader which sees an address also sees its key.
+ *
+ * @author faizanhussain
+ *
+ */
+final class LongIndex {
+
+	static final long EMPTY = 0;
+
+	private final AtomicLongArray keys;
+	private final AtomicLongArray addresses;
+	private final int mask;
+	private int size;
+
+	LongIndex(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+		this.keys = new AtomicLongArray(capacity);
+		this.addresses = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+	}
+
+	long get(long key) {
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			final long address = addresses.get(slot);
+			if (address == EMPTY || keys.get(slot) == key) {
+				return address;
+			}
+		}
+	}
+
+	/**
+	 * Only called by the writer.
+	 *
+	 * @param key
+	 * @param address
+	 */
+	void put(long key, long address) {
+		for (int slot = slot(key);; slot = (slot + 1) & mask) {
+			if (addresses.get(slot) == EMPTY) {
+				keys.set(slot, key);
+				addresses.set(slot, address);
+				size++;
+				return;
+			}
+			if (keys.get(slot) == key) {
+				addresses.set(slot, address);
+				return;
+			}
+		}
+	}
+
+	boolean isFull() {
+		return size * 2 > mask;
+	}
+
+	/**
+	 * Copy of this index with twice the capacity. Only called by the writer.
+	 *
+	 * @return
+	 */
+	LongIndex grow() {
+		final LongIndex index = new LongIndex(capacity());
+		for (int slot = 0; slot < capacity(); slot++) {
+			final long address = addresses.get(slot);
+			if (address != EMPTY) {
+				index.put(keys.get(slot), address);
+			}
+		}
+		return index;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+
+	long keyAt(int slot) {
+		return keys.get(slot);
+	}
+
+	long addressAt(int slot) {
+		return addresses.get(slot);
+	}
+
+	long memoryUsage() {
+		return 2L * Long.BYTES * capacity();
+	}
+
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+}
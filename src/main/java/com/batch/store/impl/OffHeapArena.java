@@ -0,0 +1,146 @@
+package com.batch.store.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Append only arena of price records in direct memory. A record is written
+ * once by the single writer and never changed, so readers only need to see
+ * its address through a volatile write to read it.
+ *
+ * <pre>
+ * id: long | asOf epoch nanos: long | version: long | previous record: long | payload length: int | payload
+ * </pre>
+ *
+ * A price without a payload has the length -1 and no payload bytes. The
+ * records of a commit which failed are withdrawn: their version is set beyond
+ * any published one, so no reader sees them.
+ *
+ * An address is the segment number, starting with one, in the high and the
+ * position in the low 32 bits, so it is never {@link LongIndex#EMPTY}.
+ *
+ * @author faizanhussain
+ *
+ */
+final class OffHeapArena {
+
+	static final int SEGMENT_SIZE = 16 << 20;
+
+	private static final int ID = 0;
+	private static final int AS_OF = 8;
+	private static final int VERSION = 16;
+	private static final int PREVIOUS = 24;
+	private static final int LENGTH = 32;
+	private static final int PAYLOAD = 36;
+	private static final int NULL_LENGTH = -1;
+	private static final long WITHDRAWN = Long.MAX_VALUE;
+
+	private volatile ByteBuffer[] segments = new ByteBuffer[0];
+	private ByteBuffer tail = ByteBuffer.allocate(0);
+	private long usedBytes;
+	private long allocatedBytes;
+
+	/**
+	 * Only called by the writer.
+	 *
+	 * @return address of the record
+	 */
+	long append(long id, long asOf, long version, long previous, byte[] payload) {
+		final int size = PAYLOAD + (payload == null ? 0 : payload.length);
+		if (tail.remaining() < size) {
+			addSegment(Math.max(SEGMENT_SIZE, size));
+		}
+		final int position = tail.position();
+		tail.putLong(id).putLong(asOf).putLong(version).putLong(previous);
+		if (payload == null) {
+			tail.putInt(NULL_LENGTH);
+		} else {
+			tail.putInt(payload.length).put(payload);
+		}
+		usedBytes += size;
+		return ((long) segments.length << 32) | position;
+	}
+
+	long id(long address) {
+		return segment(address).getLong(position(address) + ID);
+	}
+
+	long asOf(long address) {
+		return segment(address).getLong(position(address) + AS_OF);
+	}
+
+	long version(long address) {
+		return segment(address).getLong(position(address) + VERSION);
+	}
+
+	/**
+	 * Only called by the writer, before the version of the record is published.
+	 *
+	 * @param address
+	 */
+	void withdraw(long address) {
+		segment(address).putLong(position(address) + VERSION, WITHDRAWN);
+	}
+
+	boolean isWithdrawn(long address) {
+		return version(address) == WITHDRAWN;
+	}
+
+	long previous(long address) {
+		return segment(address).getLong(position(address) + PREVIOUS);
+	}
+
+	/**
+	 * @param address
+	 * @return payload of the record, null if the price has none
+	 */
+	byte[] payload(long address) {
+		final ByteBuffer segment = segment(address).duplicate();
+		final int position = position(address);
+		final int length = segment.getInt(position + LENGTH);
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		final byte[] payload = new byte[length];
+		segment.position(position + PAYLOAD);
+		segment.get(payload);
+		return payload;
+	}
+
+	/**
+	 * @param address
+	 * @return bytes of the payload of the record, 0 without a payload
+	 */
+	int payloadLength(long address) {
+		return Math.max(0, segment(address).getInt(position(address) + LENGTH));
+	}
+
+	int size(long address) {
+		return PAYLOAD + payloadLength(address);
+	}
+
+	long getUsedBytes() {
+		return usedBytes;
+	}
+
+	long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	private void addSegment(int size) {
+		tail = ByteBuffer.allocateDirect(size);
+		final ByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+		grown[grown.length - 1] = tail;
+		segments = grown;
+		allocatedBytes += size;
+	}
+
+	private ByteBuffer segment(long address) {
+		return segments[(int) (address >>> 32) - 1];
+	}
+
+	private static int position(long address) {
+		return (int) address;
+	}
+
+}
@@ -0,0 +1,315 @@
+package com.batch.store.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.EpochNanos;
+import com.batch.model.Price;
+import com.batch.store.CommitListener;
+import com.batch.store.PriceSnapshot;
+import com.batch.store.PriceStore;
+import com.batch.store.StoreFootprint;
+
+/**
+ * Versioned price store keyed by primitive long ids with the records in direct
+ * memory, so the heap only holds the index. A new price is appended to the
+ * arena and linked to the record it replaces, readers walk that chain back to
+ * the published version.
+ *
+ * Replaced records stay in the arena until there are more of them than live
+ * ones, the live records are then copied into a new arena which replaces the
+ * old one once the commit is published. The records of a commit which fails
+ * are withdrawn, so the next commit can reuse its version.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "batch.store.type", havingValue = "off-heap")
+public class OffHeapPriceStore implements PriceStore {
+
+	private static final long COMPACTION_THRESHOLD = 4 * OffHeapArena.SEGMENT_SIZE;
+
+	private final Lock commitLock = new ReentrantLock();
+	private final List<CommitListener> listeners = new CopyOnWriteArrayList<>();
+	private volatile State state = new State(new LongIndex(0), new OffHeapArena());
+	private volatile long publishedVersion;
+	private long payloadLength;
+	private long garbageBytes;
+	/**
+	 * Ids in the index whose only record is withdrawn.
+	 */
+	private volatile int withdrawnIds;
+	private volatile long mergedCount;
+	private volatile long staleCount;
+
+	@Override
+	public long commit(Iterable<Price> prices) {
+		commitLock.lock();
+		try {
+			final State current = state;
+			final long version = publishedVersion + 1;
+			final List<Price> mergedPrices = isListened() ? new ArrayList<>() : null;
+			final long usedBytes = current.arena.getUsedBytes();
+			final long committedPayloadLength = payloadLength;
+			final long committedGarbageBytes = garbageBytes;
+			long merged = 0;
+			long stale = 0;
+			try {
+				for (Price price : prices) {
+					if (merge(current, price, version)) {
+						merged++;
+						if (mergedPrices != null) {
+							mergedPrices.add(price);
+						}
+					} else {
+						stale++;
+					}
+				}
+			} catch (RuntimeException | Error e) {
+				withdraw(current, version);
+				payloadLength = committedPayloadLength;
+				// every record appended by the commit is garbage now
+				garbageBytes = committedGarbageBytes + current.arena.getUsedBytes() - usedBytes;
+				throw e;
+			}
+			publishedVersion = version;
+			mergedCount += merged;
+			staleCount += stale;
+			if (garbageBytes > COMPACTION_THRESHOLD && 2 * garbageBytes > current.arena.getUsedBytes()) {
+				state = compact(current);
+				garbageBytes = 0;
+				withdrawnIds = 0;
+			}
+			if (mergedPrices != null) {
+				for (CommitListener listener : listeners) {
+					listener.onCommit(version, mergedPrices);
+				}
+			}
+			return version;
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	@Override
+	public Price get(long id) {
+		return snapshot().get(id);
+	}
+
+	/**
+	 * A state holds every version published while it is the current one, so a
+	 * snapshot needs no pin.
+	 */
+	@Override
+	public PriceSnapshot snapshot() {
+		State current;
+		long version;
+		do {
+			current = state;
+			version = publishedVersion;
+		} while (current != state);
+		return new Snapshot(current, version);
+	}
+
+	@Override
+	public long getVersion() {
+		return publishedVersion;
+	}
+
+	@Override
+	public long getVersion(long id) {
+		return ((Snapshot) snapshot()).versionOf(id);
+	}
+
+	@Override
+	public int size() {
+		return state.index.size() - withdrawnIds;
+	}
+
+	@Override
+	public long getMergedCount() {
+		return mergedCount;
+	}
+
+	@Override
+	public long getStaleCount() {
+		return staleCount;
+	}
+
+	@Override
+	public StoreFootprint getFootprint() {
+		commitLock.lock();
+		try {
+			final State current = state;
+			return new StoreFootprint("off-heap", current.index.size() - withdrawnIds, payloadLength,
+					current.index.memoryUsage(), current.arena.getUsedBytes());
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	@Override
+	public void addListener(CommitListener listener) {
+		listeners.add(listener);
+	}
+
+	private boolean isListened() {
+		for (CommitListener listener : listeners) {
+			if (listener.isListening()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean merge(State current, Price price, long version) {
+		final OffHeapArena arena = current.arena;
+		final long asOf = EpochNanos.of(price.getAsOf());
+		long head = current.index.get(price.getId());
+		if (head != LongIndex.EMPTY && arena.isWithdrawn(head)) {
+			// the record of a failed commit, the one it replaced is the latest
+			head = arena.previous(head);
+			if (head == LongIndex.EMPTY) {
+				withdrawnIds--;
+			}
+		}
+
+		long previous = LongIndex.EMPTY;
+		if (head != LongIndex.EMPTY) {
+			// latest asOf wins, same as PriceFinder
+			if (arena.asOf(head) >= asOf) {
+				return false;
+			}
+			previous = arena.version(head) == version ? arena.previous(head) : head;
+			payloadLength -= arena.payloadLength(head);
+			garbageBytes += arena.size(head);
+		}
+		final byte[] payload = price.getPayloadBytes();
+		current.index.put(price.getId(), arena.append(price.getId(), asOf, version, previous, payload));
+		payloadLength += payload == null ? 0 : payload.length;
+		if (current.index.isFull()) {
+			current.index = current.index.grow();
+		}
+		return true;
+	}
+
+	/**
+	 * Withdraws the records of a version which failed to merge. A record of the
+	 * version is the head of its id and its previous record is the head before
+	 * the commit.
+	 */
+	private void withdraw(State current, long version) {
+		final OffHeapArena arena = current.arena;
+		final LongIndex index = current.index;
+		for (int slot = 0; slot < index.capacity(); slot++) {
+			final long head = index.addressAt(slot);
+			if (head != LongIndex.EMPTY && arena.version(head) == version) {
+				arena.withdraw(head);
+				if (arena.previous(head) == LongIndex.EMPTY) {
+					withdrawnIds++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called after the version is published, so the head of every chain is the
+	 * record to keep, unless it is withdrawn.
+	 */
+	private State compact(State current) {
+		final LongIndex index = new LongIndex(current.index.size());
+		final OffHeapArena arena = new OffHeapArena();
+		for (int slot = 0; slot < current.index.capacity(); slot++) {
+			long head = current.index.addressAt(slot);
+			if (head != LongIndex.EMPTY && current.arena.isWithdrawn(head)) {
+				head = current.arena.previous(head);
+			}
+			if (head != LongIndex.EMPTY) {
+				final long id = current.index.keyAt(slot);
+				index.put(id, arena.append(id, current.arena.asOf(head), current.arena.version(head), LongIndex.EMPTY,
+						current.arena.payload(head)));
+			}
+		}
+		return new State(index, arena);
+	}
+
+	private static final class Snapshot implements PriceSnapshot {
+		private final State state;
+		private final long version;
+
+		Snapshot(State state, long version) {
+			this.state = state;
+			this.version = version;
+		}
+
+		@Override
+		public long getVersion() {
+			return version;
+		}
+
+		@Override
+		public Price get(long id) {
+			return price(id, state.index.get(id));
+		}
+
+		@Override
+		public void forEach(Consumer<Price> action) {
+			final LongIndex index = state.index;
+			for (int slot = 0; slot < index.capacity(); slot++) {
+				final long head = index.addressAt(slot);
+				if (head != LongIndex.EMPTY) {
+					final Price price = price(index.keyAt(slot), head);
+					if (price != null) {
+						action.accept(price);
+					}
+				}
+			}
+		}
+
+		long versionOf(long id) {
+			final long address = find(state.index.get(id));
+			return address == LongIndex.EMPTY ? 0 : state.arena.version(address);
+		}
+
+		private Price price(long id, long head) {
+			final OffHeapArena arena = state.arena;
+			final long address = find(head);
+			if (address == LongIndex.EMPTY) {
+				return null;
+			}
+			return new Price(id, EpochNanos.toLocalDateTime(arena.asOf(address)), arena.payload(address));
+		}
+
+		private long find(long head) {
+			final OffHeapArena arena = state.arena;
+			long address = head;
+			while (address != LongIndex.EMPTY && arena.version(address) > version) {
+				address = arena.previous(address);
+			}
+			return address;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static final class State {
+		private volatile LongIndex index;
+		private final OffHeapArena arena;
+
+		State(LongIndex index, OffHeapArena arena) {
+			this.index = index;
+			this.arena = arena;
+		}
+	}
+
+}
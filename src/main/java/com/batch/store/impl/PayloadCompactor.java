@@ -0,0 +1,179 @@
+package com.batch.store.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.batch.model.Price;
+
+/**
+ * Compacts the payloads of the prices kept by the heap store. Payloads of at
+ * least the compress threshold are deflated and equal payloads are interned,
+ * so the prices of instruments which repeat a payload share one array. A price
+ * is only inflated when it is read.
+ * <p>
+ * The deflater is given a preset dictionary, trained on the first payloads
+ * which are compressed: they are concatenated up to the dictionary size, the
+ * latest ones at the end where deflate finds them cheapest. The payloads
+ * compressed before the dictionary is complete are deflated without it. The
+ * dictionary is loaded into the inflater for every read, so a small one keeps
+ * reads fast.
+ *
+ * @author faizanhussain
+ *
+ */
+@Component
+public class PayloadCompactor {
+
+	/**
+	 * Size of the deflate window, a longer dictionary is not used.
+	 */
+	private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+	private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+	private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[1024]);
+
+	private final PayloadInterner interner;
+	private final int compressThreshold;
+	private final int dictionarySize;
+	private final ByteArrayOutputStream samples = new ByteArrayOutputStream();
+	private volatile byte[] dictionary;
+
+	/**
+	 * Keeps the payloads as they are.
+	 */
+	public PayloadCompactor() {
+		this(false, 0, 0);
+	}
+
+	/**
+	 * @param dedup
+	 *            intern equal payloads
+	 * @param compressThreshold
+	 *            bytes from which a payload is deflated, 0 to never deflate
+	 * @param dictionarySize
+	 *            bytes of the preset dictionary, 0 to deflate without one
+	 */
+	@Autowired
+	public PayloadCompactor(@Value("${batch.payload.dedup:false}") boolean dedup,
+			@Value("${batch.payload.compress-threshold:0}") int compressThreshold,
+			@Value("${batch.payload.dictionary-size:4096}") int dictionarySize) {
+		this.interner = dedup ? new PayloadInterner() : null;
+		this.compressThreshold = compressThreshold;
+		this.dictionarySize = Math.min(dictionarySize, MAX_DICTIONARY_SIZE);
+	}
+
+	/**
+	 * @param price
+	 * @return the price to keep, with a deflated or interned payload
+	 */
+	public Price compact(Price price) {
+		final byte[] payload = price.getPayloadBytes();
+		if (payload == null) {
+			return price;
+		}
+		if (compressThreshold > 0 && payload.length >= compressThreshold) {
+			final Price deflated = deflate(price, payload);
+			if (deflated != null) {
+				return deflated;
+			}
+		}
+		if (interner == null) {
+			return price;
+		}
+		final byte[] interned = interner.intern(payload);
+		return interned == payload ? price : new Price(price.getId(), price.getAsOf(), interned);
+	}
+
+	/**
+	 * @param stored
+	 *            price returned by {@link #compact(Price)}
+	 * @return the price with its payload as it was committed
+	 */
+	public Price expand(Price stored) {
+		if (!(stored instanceof DeflatedPrice)) {
+			return stored;
+		}
+		final DeflatedPrice deflated = (DeflatedPrice) stored;
+		final Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(deflated.getPayloadBytes());
+		final byte[] payload = new byte[deflated.getPayloadLength()];
+		try {
+			int length = 0;
+			while (!inflater.finished()) {
+				final int inflated = inflater.inflate(payload, length, payload.length - length);
+				if (inflated == 0 && inflater.needsDictionary()) {
+					inflater.setDictionary(deflated.getDictionary());
+				} else if (inflated == 0 && inflater.needsInput()) {
+					throw new IllegalStateException("Truncated payload of price " + stored.getId());
+				}
+				length += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Corrupt payload of price " + stored.getId(), e);
+		}
+		return new Price(stored.getId(), stored.getAsOf(), payload);
+	}
+
+	/**
+	 * @return number of distinct payloads which are interned
+	 */
+	public int getInternedCount() {
+		return interner == null ? 0 : interner.size();
+	}
+
+	/**
+	 * @return null if the payload does not get smaller
+	 */
+	private Price deflate(Price price, byte[] payload) {
+		final byte[] preset = dictionary == null ? train(payload) : dictionary;
+		final Deflater deflater = DEFLATERS.get();
+		deflater.reset();
+		if (preset != null) {
+			deflater.setDictionary(preset);
+		}
+		deflater.setInput(payload);
+		deflater.finish();
+		byte[] buffer = BUFFERS.get();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				BUFFERS.set(buffer);
+			}
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		}
+		if (length >= payload.length) {
+			return null;
+		}
+		final byte[] deflated = Arrays.copyOf(buffer, length);
+		return new DeflatedPrice(price.getId(), price.getAsOf(),
+				interner == null ? deflated : interner.intern(deflated), payload.length, preset);
+	}
+
+	/**
+	 * Adds the payload to the samples and publishes the dictionary once they
+	 * fill it.
+	 * 
+	 * @return the dictionary or null while it is trained
+	 */
+	private synchronized byte[] train(byte[] payload) {
+		if (dictionary == null && dictionarySize > 0) {
+			samples.write(payload, 0, Math.min(payload.length, dictionarySize - samples.size()));
+			if (samples.size() == dictionarySize) {
+				dictionary = samples.toByteArray();
+				samples.reset();
+			}
+		}
+		return dictionary;
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.batch.store.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns payloads by their content, so prices with equal payloads share one
+ * array. The table only holds weak references, an array which no price uses
+ * any more is collected and its entry dropped.
+ *
+ * @author faizanhussain
+ *
+ */
+final class PayloadInterner {
+
+	private final ConcurrentHashMap<Key, WeakKey> table = new ConcurrentHashMap<>();
+	private final ReferenceQueue<byte[]> cleared = new ReferenceQueue<>();
+
+	/**
+	 * @param payload
+	 * @return the interned array equal to the payload, the payload itself if it
+	 *         is the first one
+	 */
+	byte[] intern(byte[] payload) {
+		expunge();
+		final int hash = Arrays.hashCode(payload);
+		for (;;) {
+			WeakKey interned = table.get(new Probe(payload, hash));
+			if (interned == null) {
+				final WeakKey key = new WeakKey(payload, hash, cleared);
+				interned = table.putIfAbsent(key, key);
+				if (interned == null) {
+					return payload;
+				}
+			}
+			final byte[] bytes = interned.get();
+			if (bytes != null) {
+				return bytes;
+			}
+			table.remove(interned, interned);
+		}
+	}
+
+	int size() {
+		return table.size();
+	}
+
+	private void expunge() {
+		Reference<? extends byte[]> reference;
+		while ((reference = cleared.poll()) != null) {
+			table.remove(reference);
+		}
+	}
+
+	private interface Key {
+		byte[] bytes();
+	}
+
+	private static final class Probe implements Key {
+		private final byte[] bytes;
+		private final int hash;
+
+		Probe(byte[] bytes, int hash) {
+			this.bytes = bytes;
+			this.hash = hash;
+		}
+
+		@Override
+		public byte[] bytes() {
+			return bytes;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(bytes, ((Key) obj).bytes());
+		}
+	}
+
+	/**
+	 * A cleared key is only equal to itself, so it can still be removed.
+	 */
+	private static final class WeakKey extends WeakReference<byte[]> implements Key {
+		private final int hash;
+
+		WeakKey(byte[] bytes, int hash, ReferenceQueue<byte[]> queue) {
+			super(bytes, queue);
+			this.hash = hash;
+		}
+
+		@Override
+		public byte[] bytes() {
+			return get();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			final byte[] bytes = get();
+			return bytes != null && obj instanceof Key && Arrays.equals(bytes, ((Key) obj).bytes());
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.batch.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.batch.exception.InvalidAsOfException;
+import com.batch.model.EpochNanos;
+import com.batch.model.Price;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+
+/**
+ * Test for the JSON of a price written from the bytes of its payload
+ *
+ * @author faizanhussain
+ *
+ */
+public class JsonPriceSerializerTest {
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+			.featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).modulesToInstall(ParameterNamesModule.class)
+			.build();
+
+	private final Price price = new Price(1L, LocalDateTime.of(2018, 7, 1, 16, 0, 0, 123456789),
+			"café \"€\"\n\\ 😀");
+
+	@Test
+	public void payloadShouldBeEscapedWhenWrittenAsBytesOrCharacters() throws IOException {
+		final byte[] bytes = objectMapper.writeValueAsBytes(price);
+		assertEquals(price, objectMapper.readValue(bytes, Price.class));
+
+		final String json = objectMapper.writeValueAsString(price);
+		assertEquals(price, objectMapper.readValue(json, Price.class));
+		assertEquals(json, new String(bytes, "UTF-8"));
+		assertTrue(json.startsWith("{\"id\":1,\"asOf\":\"2018-07-01T16:00:00.123456789\",\"payload\":"));
+	}
+
+	@Test
+	public void asOfBeyondTheRangeOfEpochNanosShouldNotBeRead() throws IOException {
+		assertEquals(Long.MIN_VALUE, EpochNanos.of(EpochNanos.MIN));
+		assertEquals(Long.MAX_VALUE, EpochNanos.of(EpochNanos.MAX));
+		assertEquals(EpochNanos.MAX,
+				objectMapper.readValue("{\"id\":1,\"asOf\":\"" + EpochNanos.MAX + "\",\"payload\":\"a\"}", Price.class)
+						.getAsOf());
+		try {
+			objectMapper.readValue("{\"id\":1,\"asOf\":\"3000-01-01T00:00:00\",\"payload\":\"a\"}", Price.class);
+			fail();
+		} catch (JsonMappingException e) {
+			assertTrue(e.getCause() instanceof InvalidAsOfException);
+		}
+	}
+
+}
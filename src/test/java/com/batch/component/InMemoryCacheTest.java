@@ -0,0 +1,62 @@
+package com.batch.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batch.exception.BatchNotFoundException;
+import com.batch.model.Batch;
+import com.batch.model.Price;
+
+/**
+ * Test for the discard and the reaping of the idle and prepared batches
+ *
+ * @author faizanhussain
+ *
+ */
+public class InMemoryCacheTest {
+
+	@Test(expected = BatchNotFoundException.class)
+	public void idleBatchShouldBeReaped() {
+		InMemoryCache cache = new InMemoryCache();
+		Batch batch = cache.create();
+		ReflectionTestUtils.setField(cache, "idleTimeout", 0L);
+
+		cache.reapIdleBatches();
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getReapedCount());
+		cache.save(batch.getId(), Collections.singletonList(new Price(1L, LocalDateTime.now(), "a")));
+	}
+
+	@Test(expected = BatchNotFoundException.class)
+	public void preparedBatchShouldBeDiscardedAfterThePrepareTimeout() {
+		InMemoryCache cache = new InMemoryCache();
+		Batch batch = cache.create();
+		cache.save(batch.getId(), Collections.singletonList(new Price(1L, LocalDateTime.now(), "a")));
+		cache.prepare(batch.getId());
+		ReflectionTestUtils.setField(cache, "prepareTimeout", 0L);
+
+		cache.expirePreparedBatches();
+		assertEquals(0, cache.getPreparedCount());
+		assertEquals(1, cache.getExpiredPreparedCount());
+		cache.commitPrepared(batch.getId());
+	}
+
+	@Test
+	public void discardShouldCountTheReclaimedBytes() {
+		InMemoryCache cache = new InMemoryCache();
+		Batch batch = cache.create();
+		cache.save(batch.getId(), Collections.singletonList(new Price(1L, LocalDateTime.now(), "abcdefghij")));
+
+		long bytes = cache.discard(batch.getId());
+		// one staged price with its payload and the slots of the smallest table
+		assertEquals(120 + 16 + 64 * 4, bytes);
+		assertEquals(bytes, cache.getDiscardedBytes());
+		assertEquals(0, cache.size());
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.batch.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.batch.model.Batch;
+
+/**
+ * Test for the table of the open batches
+ *
+ * @author faizanhussain
+ *
+ */
+public class OpenBatchTableTest {
+
+	@Test
+	public void batchesShouldBeFoundUntilTheyAreRemoved() {
+		OpenBatchTable table = new OpenBatchTable();
+		Batch[] batches = new Batch[1000];
+		for (int i = 0; i < batches.length; i++) {
+			batches[i] = new Batch(i + 1);
+			table.put(batches[i]);
+		}
+		assertEquals(1000, table.size());
+
+		for (int i = 0; i < batches.length; i += 2) {
+			assertSame(batches[i], table.remove(i + 1));
+		}
+		assertNull(table.remove(1));
+		assertNull(table.remove(2, new Batch(2)));
+		assertEquals(500, table.size());
+
+		for (int i = 0; i < batches.length; i++) {
+			assertEquals(i % 2 == 0 ? null : batches[i], table.get(i + 1));
+		}
+		AtomicInteger open = new AtomicInteger();
+		table.forEach(batch -> open.incrementAndGet());
+		assertEquals(500, open.get());
+	}
+
+	@Test
+	public void removedBatchesShouldNotFillTheTable() {
+		OpenBatchTable table = new OpenBatchTable();
+		for (long id = 1; id <= 100_000; id++) {
+			table.put(new Batch(id));
+			assertEquals(id, table.remove(id).getId());
+		}
+		assertEquals(0, table.size());
+		assertNull(table.get(100_000));
+	}
+
+}
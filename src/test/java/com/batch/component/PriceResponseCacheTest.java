@@ -0,0 +1,45 @@
+package com.batch.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.batch.model.Price;
+import com.batch.store.PriceStore;
+import com.batch.store.impl.HeapPriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Test for the eviction of the cached JSON of the prices
+ *
+ * @author faizanhussain
+ *
+ */
+public class PriceResponseCacheTest {
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0);
+
+	@Test
+	public void entryReadSinceTheLastSweepShouldOutliveTheOthers() {
+		PriceStore store = new HeapPriceStore();
+		store.commit(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b"), new Price(3L, now, "c")));
+		PriceResponseCache cache = new PriceResponseCache(store, new ObjectMapper(), 2);
+
+		cache.get(1L);
+		cache.get(2L);
+		// 1 is read again, so 2 is evicted for 3
+		cache.get(1L);
+		cache.get(3L);
+		assertEquals(1, cache.getHitCount());
+
+		cache.get(1L);
+		cache.get(3L);
+		assertEquals(3, cache.getHitCount());
+		cache.get(2L);
+		assertEquals(4, cache.getMissCount());
+	}
+
+}
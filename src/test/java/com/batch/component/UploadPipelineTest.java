@@ -0,0 +1,184 @@
+package com.batch.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.batch.component.UploadPipeline.Upload;
+import com.batch.exception.BatchNotFoundException;
+import com.batch.exception.UploadQueueFullException;
+import com.batch.model.Batch;
+import com.batch.model.Price;
+import com.batch.model.StagedPrices;
+
+/**
+ * Test for the merge of the uploaded blocks by the merge workers
+ *
+ * @author faizanhussain
+ *
+ */
+public class UploadPipelineTest {
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0);
+	private final InMemoryCache cache = new InMemoryCache();
+	private final UploadPipeline pipeline = pipeline(2, 2, 30000);
+
+	@After
+	public void tearDown() {
+		pipeline.stop();
+	}
+
+	@Test
+	public void closeShouldReturnOnceTheBlocksAreMerged() {
+		Batch batch = cache.create();
+		List<Price> block = new ArrayList<>();
+		try (Upload upload = pipeline.open(batch.getId(), prices -> cache.save(batch.getId(), prices))) {
+			for (long from = 0; from < 10000; from += 100) {
+				block.clear();
+				LongStream.range(from, from + 100).mapToObj(id -> new Price(id, now, "p")).forEach(block::add);
+				// the block is reused like the readers do
+				upload.accept(block);
+			}
+		}
+		assertEquals(0, pipeline.getDepth());
+
+		pipeline.awaitMerged(batch.getId());
+		Set<Long> ids = new HashSet<>();
+		try (StagedPrices prices = cache.commit(batch.getId())) {
+			prices.forEach(price -> ids.add(price.getId()));
+		}
+		assertEquals(10000, ids.size());
+	}
+
+	@Test
+	public void blocksOfABatchShouldBeMergedInTheirOrder() {
+		List<Long> merged = Collections.synchronizedList(new ArrayList<>());
+		try (Upload upload = pipeline.open(1L, prices -> {
+			// merges of uneven length, which would finish out of order if they overlapped
+			LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(200_000));
+			merged.add(prices.get(0).getId());
+		})) {
+			for (long id = 0; id < 200; id++) {
+				upload.accept(Collections.singletonList(new Price(id, now, "p")));
+			}
+		}
+		assertEquals(LongStream.range(0, 200).boxed().collect(Collectors.toList()), merged);
+	}
+
+	@Test
+	public void failedMergeShouldFailTheUpload() {
+		try (Upload upload = pipeline.open(1L, prices -> cache.save(1L, prices))) {
+			upload.accept(Collections.singletonList(new Price(1L, now, "a")));
+		} catch (BatchNotFoundException e) {
+			return;
+		}
+		fail();
+	}
+
+	@Test
+	public void fullQueueShouldRejectTheUpload() throws InterruptedException {
+		UploadPipeline slow = pipeline(1, 1, 10);
+		CountDownLatch merging = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Price> block = LongStream.range(0, 10).mapToObj(id -> new Price(id, now, "p"))
+				.collect(Collectors.toList());
+		try (Upload upload = slow.open(1L, prices -> {
+			merging.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		})) {
+			upload.accept(block);
+			merging.await();
+			// one block in the queue while the worker merges the first
+			upload.accept(block);
+			try {
+				upload.accept(block);
+				fail();
+			} catch (UploadQueueFullException e) {
+				assertEquals(1, slow.getRejectedCount());
+				assertTrue(slow.getDepth() > 0);
+			}
+			release.countDown();
+		} finally {
+			slow.stop();
+		}
+		assertEquals(0, slow.getDepth());
+	}
+
+	@Test
+	public void asyncUploadShouldResumeOnceThereIsRoomAndReportTheMerge() throws InterruptedException {
+		UploadPipeline slow = pipeline(1, 1, 10);
+		CountDownLatch merging = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch resumed = new CountDownLatch(1);
+		CountDownLatch closed = new CountDownLatch(1);
+		AtomicInteger merged = new AtomicInteger();
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		List<Price> block = Collections.singletonList(new Price(1L, now, "p"));
+		try {
+			Upload upload = slow.openAsync(1L, prices -> {
+				merging.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				merged.incrementAndGet();
+			});
+			upload.accept(block);
+			merging.await();
+			upload.accept(block);
+			// queued beyond the capacity instead of waiting
+			upload.accept(block);
+			assertTrue(upload.awaitRoom(resumed::countDown));
+			upload.close(error -> {
+				failure.set(error);
+				closed.countDown();
+			});
+			assertEquals(1, closed.getCount());
+
+			release.countDown();
+			assertTrue(resumed.await(10, TimeUnit.SECONDS));
+			assertTrue(closed.await(10, TimeUnit.SECONDS));
+			assertEquals(3, merged.get());
+			assertNull(failure.get());
+			assertFalse(upload.awaitRoom(() -> fail()));
+		} finally {
+			slow.stop();
+		}
+	}
+
+	private static UploadPipeline pipeline(int workers, int queueCapacity, long offerTimeout) {
+		UploadPipeline pipeline = new UploadPipeline();
+		ReflectionTestUtils.setField(pipeline, "workerCount", workers);
+		ReflectionTestUtils.setField(pipeline, "queueCapacity", queueCapacity);
+		ReflectionTestUtils.setField(pipeline, "offerTimeout", offerTimeout);
+		pipeline.start();
+		return pipeline;
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.batch.feed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.batch.model.Price;
+
+/**
+ * Test for the buffer of a subscriber of the price feed
+ *
+ * @author faizanhussain
+ *
+ */
+public class SubscriberTest {
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0, 0, 123456789);
+
+	private final List<Runnable> sends = new ArrayList<>();
+	private final List<Subscriber> closed = new ArrayList<>();
+
+	@Test
+	public void subscriberShouldBeClosedWhenItsBufferOverflows() {
+		Subscriber subscriber = new Subscriber(new SseEmitter(), new HashSet<>(Arrays.asList(1L, 2L)), 2, sends::add,
+				closed::add);
+
+		// commits are buffered whatever their prices, the sender filters them
+		assertTrue(subscriber.offer(1L, Arrays.asList(new Price(1L, now, "a"), new Price(3L, now, "b"))));
+		assertTrue(subscriber.offer(2L, Collections.singletonList(new Price(3L, now, "c"))));
+		assertTrue(closed.isEmpty());
+		assertFalse(subscriber.offer(3L, Collections.singletonList(new Price(2L, now, "d"))));
+		assertEquals(Collections.singletonList(subscriber), closed);
+
+		// the sender is scheduled once while it has not run
+		assertEquals(1, sends.size());
+		assertTrue(subscriber.offer(4L, Collections.singletonList(new Price(1L, now, "e"))));
+		assertEquals(1, closed.size());
+	}
+
+	@Test
+	public void commitWithMorePricesThanTheBufferSizeShouldNotOverflow() {
+		Subscriber subscriber = new Subscriber(new SseEmitter(), null, 1, sends::add, closed::add);
+
+		assertTrue(subscriber.offer(1L, prices(1000)));
+		sends.get(0).run();
+		assertTrue(subscriber.offer(2L, prices(1000)));
+		assertTrue(closed.isEmpty());
+	}
+
+	private List<Price> prices(int count) {
+		List<Price> prices = new ArrayList<>();
+		for (long id = 0; id < count; id++) {
+			prices.add(new Price(id, now, "p" + id));
+		}
+		return prices;
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.batch.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.batch.model.Price;
+import com.batch.store.PriceStore;
+import com.batch.store.impl.HeapPriceStore;
+
+/**
+ * Test for the reads of the prices as of an instant or a version
+ *
+ * @author faizanhussain
+ *
+ */
+public class PriceHistoryTest {
+
+	private final LocalDateTime now = LocalDateTime.now();
+
+	@Test
+	public void priceShouldBeReadAsOfAnInstantOrAVersion() {
+		PriceStore store = new HeapPriceStore();
+		PriceHistory history = new PriceHistory(0, store);
+		long first = store.commit(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b")));
+		long second = store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(2), "c")));
+		store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(1), "stale")));
+		long third = store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(3), "d")));
+
+		assertNull(history.get(1L, now.minusNanos(1)));
+		assertEquals(new Price(1L, now, "a"), history.get(1L, now.plusSeconds(1)));
+		assertEquals(new Price(1L, now.plusSeconds(2), "c"), history.get(1L, now.plusSeconds(2)));
+		assertEquals(new Price(1L, now.plusSeconds(3), "d"), history.get(1L, now.plusDays(1)));
+
+		assertNull(history.get(1L, first - 1));
+		assertEquals(new Price(1L, now, "a"), history.get(1L, first));
+		assertEquals(new Price(1L, now.plusSeconds(2), "c"), history.get(1L, second));
+		assertEquals(new Price(1L, now.plusSeconds(2), "c"), history.get(1L, third - 1));
+		assertEquals(new Price(1L, now.plusSeconds(3), "d"), history.get(1L, third));
+		assertEquals(new Price(2L, now, "b"), history.get(2L, third));
+		assertNull(history.get(3L, third));
+	}
+
+	@Test
+	public void pricesCommittedBeforeTheRetentionShouldBeDroppedExceptThePriceAtTheCutoff() {
+		PriceStore store = new HeapPriceStore();
+		AtomicLong clock = new AtomicLong();
+		PriceHistory history = new PriceHistory(60, store, clock::get);
+		LocalDateTime old = now.minusHours(1);
+		for (int i = 0; i < 10; i++) {
+			store.commit(Collections.singletonList(new Price(1L, old.plusSeconds(i), "old" + i)));
+		}
+		// committed within the retention, an old asOf does not drop them
+		store.commit(Collections.singletonList(new Price(1L, now, "new")));
+		assertEquals(new Price(1L, old, "old0"), history.get(1L, old));
+
+		clock.set(TimeUnit.HOURS.toNanos(1));
+		for (int i = 1; i <= 6; i++) {
+			store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(i), "new" + i)));
+		}
+
+		assertNull(history.get(1L, old.plusSeconds(9)));
+		assertEquals(new Price(1L, now, "new"), history.get(1L, now));
+		assertEquals(new Price(1L, now.plusSeconds(6), "new6"), history.get(1L, now.plusDays(1)));
+	}
+
+}
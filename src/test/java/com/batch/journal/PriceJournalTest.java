@@ -0,0 +1,180 @@
+package com.batch.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.batch.model.Price;
+import com.batch.store.PriceStore;
+import com.batch.store.impl.HeapPriceStore;
+
+/**
+ * Test for the recovery of the committed prices from the journal
+ *
+ * @author faizanhussain
+ *
+ */
+public class PriceJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0, 0, 123456789);
+
+	@Test
+	public void commitsShouldBeRecoveredFromTheJournal() throws IOException {
+		PriceJournal journal = open(new HeapPriceStore());
+		journal.commit(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b")));
+		journal.commit(Collections.singletonList(new Price(1L, now.plusSeconds(1), "c")));
+		journal.close();
+
+		PriceStore recovered = new HeapPriceStore();
+		open(recovered).close();
+		assertEquals(new Price(1L, now.plusSeconds(1), "c"), recovered.get(1L));
+		assertEquals(new Price(2L, now, "b"), recovered.get(2L));
+	}
+
+	@Test
+	public void priceWithoutAPayloadShouldBeRecovered() throws IOException {
+		PriceJournal journal = open(new HeapPriceStore());
+		journal.commit(Arrays.asList(new Price(1L, now, (String) null), new Price(2L, now, "")));
+		journal.snapshot();
+		journal.commit(Collections.singletonList(new Price(3L, now, (String) null)));
+		journal.close();
+
+		PriceStore recovered = new HeapPriceStore();
+		open(recovered).close();
+		assertEquals(new Price(1L, now, (String) null), recovered.get(1L));
+		assertEquals(new Price(2L, now, ""), recovered.get(2L));
+		assertEquals(new Price(3L, now, (String) null), recovered.get(3L));
+	}
+
+	@Test
+	public void snapshotShouldReplaceTheSegmentsItCovers() throws IOException {
+		PriceJournal journal = open(new HeapPriceStore());
+		journal.commit(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b")));
+		journal.snapshot();
+		journal.commit(Collections.singletonList(new Price(2L, now.plusSeconds(1), "c")));
+		journal.close();
+		assertEquals(1, segments().size());
+
+		PriceStore recovered = new HeapPriceStore();
+		open(recovered).close();
+		assertEquals(new Price(1L, now, "a"), recovered.get(1L));
+		assertEquals(new Price(2L, now.plusSeconds(1), "c"), recovered.get(2L));
+	}
+
+	@Test
+	public void incompleteTailShouldBeIgnored() throws IOException {
+		PriceJournal journal = open(new HeapPriceStore());
+		journal.commit(Collections.singletonList(new Price(1L, now, "a")));
+		journal.close();
+		Files.write(segments().get(0), new byte[] { 0, 0, 0, 40, 1, 2 }, StandardOpenOption.APPEND);
+
+		PriceStore recovered = new HeapPriceStore();
+		journal = open(recovered);
+		journal.commit(Collections.singletonList(new Price(2L, now, "b")));
+		journal.close();
+		assertEquals(new Price(1L, now, "a"), recovered.get(1L));
+
+		PriceStore again = new HeapPriceStore();
+		open(again).close();
+		assertEquals(new Price(1L, now, "a"), again.get(1L));
+		assertEquals(new Price(2L, now, "b"), again.get(2L));
+		assertNull(again.get(3L));
+	}
+
+	@Test
+	public void concurrentCommitsShouldBePublishedInTheOrderOfTheJournal() throws Exception {
+		PriceStore store = new HeapPriceStore();
+		Map<Long, Long> published = new ConcurrentHashMap<>();
+		store.addListener((version, merged) -> published.put(version, merged.get(0).getId()));
+		PriceJournal journal = open(store);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> commits = new ArrayList<>();
+			for (int committer = 0; committer < 8; committer++) {
+				final long first = committer * 1000L;
+				commits.add(executor.submit(() -> {
+					for (long id = first; id < first + 200; id++) {
+						journal.commit(Collections.singletonList(new Price(id, now, "p" + id)));
+					}
+				}));
+			}
+			for (Future<?> commit : commits) {
+				commit.get();
+			}
+		} finally {
+			executor.shutdown();
+			journal.close();
+		}
+
+		PriceStore recovered = new HeapPriceStore();
+		Map<Long, Long> replayed = new ConcurrentHashMap<>();
+		recovered.addListener((version, merged) -> replayed.put(version, merged.get(0).getId()));
+		open(recovered).close();
+		assertEquals(1600, replayed.size());
+		assertEquals(published, replayed);
+	}
+
+	@Test
+	public void segmentsAfterACorruptRecordShouldNotBeReplayed() throws IOException {
+		PriceJournal journal = open(new HeapPriceStore());
+		journal.commit(Collections.singletonList(new Price(1L, now, "a")));
+		journal.commit(Collections.singletonList(new Price(2L, now, "b")));
+		journal.close();
+		journal = open(new HeapPriceStore());
+		journal.commit(Collections.singletonList(new Price(3L, now, "c")));
+		journal.close();
+		assertEquals(2, segments().size());
+
+		Path first = segments().get(0);
+		byte[] bytes = Files.readAllBytes(first);
+		// the payload of the second record
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(first, bytes);
+
+		PriceStore recovered = new HeapPriceStore();
+		open(recovered).close();
+		assertEquals(new Price(1L, now, "a"), recovered.get(1L));
+		assertNull(recovered.get(2L));
+		assertNull(recovered.get(3L));
+
+		PriceStore again = new HeapPriceStore();
+		open(again).close();
+		assertNull(again.get(3L));
+	}
+
+	private PriceJournal open(PriceStore store) throws IOException {
+		PriceJournal journal = new PriceJournal(folder.getRoot().getPath(), 0, store);
+		journal.recover();
+		return journal;
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> paths = Files.list(folder.getRoot().toPath())) {
+			return paths.filter(path -> path.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+		}
+	}
+
+}
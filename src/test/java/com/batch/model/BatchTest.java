@@ -0,0 +1,213 @@
+package com.batch.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.batch.exception.BatchAlreadyCommitted;
+import com.batch.exception.ChunkInProgressException;
+import com.batch.exception.InvalidChunkException;
+
+/**
+ * Test for the staging of the prices of a batch
+ *
+ * @author faizanhussain
+ *
+ */
+public class BatchTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0, 0, 123456789);
+
+	@Test(expected = BatchAlreadyCommitted.class)
+	public void uploadShouldFailAfterClose() {
+		Batch batch = new Batch(1L);
+		batch.upload(Collections.singletonList(new Price(1L, now, "a")));
+		batch.closeAndRefresh();
+		batch.upload(Collections.singletonList(new Price(2L, now, "b")));
+	}
+
+	@Test
+	public void uploadShouldKeepTheLatestPriceOfAChunk() {
+		Batch batch = new Batch(1L);
+		assertEquals(2, batch.upload(Arrays.asList(new Price(1L, now, "a"), new Price(1L, now.plusSeconds(2), "b"),
+				new Price(2L, now, "c"), new Price(1L, now.plusSeconds(1), "d"))));
+		assertEquals(1, batch.upload(Arrays.asList(new Price(2L, now.minusSeconds(1), "e"))));
+
+		List<Price> prices = new ArrayList<>();
+		batch.closeAndRefresh().forEach(prices::add);
+		assertEquals(2, prices.size());
+		assertTrue(prices.containsAll(Arrays.asList(new Price(1L, now.plusSeconds(2), "b"), new Price(2L, now, "c"))));
+	}
+
+	@Test
+	public void spilledBatchShouldMergeTheLatestPriceOfEveryId() throws IOException {
+		Batch batch = new Batch(1L, 2, folder.getRoot().toPath());
+		batch.upload(Arrays.asList(new Price(3L, now, "a"), new Price(1L, now, "b"), new Price(2L, now, "c")));
+		batch.upload(Arrays.asList(new Price(1L, now.plusSeconds(1), "d"), new Price(3L, now.minusSeconds(1), "e"),
+				new Price(4L, now, "f")));
+		batch.upload(Collections.singletonList(new Price(2L, now.plusSeconds(1), "g")));
+
+		try (StagedPrices prices = batch.closeAndRefresh()) {
+			assertTrue(prices.isSpilled());
+			for (int i = 0; i < 2; i++) {
+				List<Price> merged = new ArrayList<>();
+				prices.forEach(merged::add);
+				assertEquals(Arrays.asList(new Price(1L, now.plusSeconds(1), "d"), new Price(2L, now.plusSeconds(1), "g"),
+						new Price(3L, now, "a"), new Price(4L, now, "f")), merged);
+			}
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void spilledBatchShouldKeepTheFirstPriceOfAnIdWithTheSameAsOf() throws IOException {
+		Batch batch = new Batch(1L, 2, folder.getRoot().toPath());
+		batch.upload(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b"), new Price(3L, now, "c")));
+		batch.upload(Arrays.asList(new Price(1L, now, "d"), new Price(2L, now, "e"), new Price(3L, now, "f")));
+		batch.upload(Arrays.asList(new Price(1L, now, "g"), new Price(4L, now, "h")));
+
+		try (StagedPrices prices = batch.closeAndRefresh()) {
+			assertTrue(prices.isSpilled());
+			List<Price> merged = new ArrayList<>();
+			prices.forEach(merged::add);
+			assertEquals(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b"), new Price(3L, now, "c"),
+					new Price(4L, now, "h")), merged);
+		}
+	}
+
+	@Test
+	public void concurrentUploadsShouldGrowTheTableAndKeepTheLatestPrices() throws Exception {
+		Batch batch = new Batch(1L);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> uploads = new ArrayList<>();
+			for (int uploader = 0; uploader < 4; uploader++) {
+				final int seconds = uploader;
+				uploads.add(executor.submit(() -> {
+					for (long from = 0; from < 10000; from += 100) {
+						batch.upload(LongStream.range(from, from + 100)
+								.mapToObj(id -> new Price(id, now.plusSeconds(seconds), "p" + seconds))
+								.collect(Collectors.toList()));
+					}
+				}));
+			}
+			for (Future<?> upload : uploads) {
+				upload.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		try (StagedPrices prices = batch.closeAndRefresh()) {
+			Set<Long> ids = new HashSet<>();
+			for (Price price : prices) {
+				assertTrue(ids.add(price.getId()));
+				assertEquals(now.plusSeconds(3), price.getAsOf());
+			}
+			assertEquals(10000, ids.size());
+		}
+	}
+
+	@Test
+	public void stagingTableShouldGoBackToThePoolAfterCommitAndDiscard() {
+		StagingTablePool pool = new StagingTablePool(1);
+		Batch batch = new Batch(1L, 1000, 0, null, pool);
+		batch.upload(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b")));
+		assertEquals(0, pool.getPooledCount());
+		batch.closeAndRefresh().close();
+		assertEquals(1, pool.getPooledCount());
+
+		// a smaller batch takes the cleared table if it needs at least half of it
+		Batch next = new Batch(2L, 600, 0, null, pool);
+		assertEquals(0, pool.getPooledCount());
+		next.upload(Collections.singletonList(new Price(3L, now, "c")));
+		List<Price> prices = new ArrayList<>();
+		try (StagedPrices staged = next.closeAndRefresh()) {
+			staged.forEach(prices::add);
+		}
+		assertEquals(Collections.singletonList(new Price(3L, now, "c")), prices);
+		assertEquals(1, pool.getAllocatedCount());
+
+		new Batch(3L, 600, 0, null, pool).discard();
+		assertEquals(1, pool.getPooledCount());
+
+		// a much smaller batch allocates its own table
+		new Batch(4L, 10, 0, null, pool).discard();
+		assertEquals(1, pool.getPooledCount());
+		assertEquals(2, pool.getAllocatedCount());
+	}
+
+	@Test
+	public void appliedChunkShouldNotBeClaimedAgain() {
+		Batch batch = new Batch(1L);
+		assertTrue(batch.claimChunk(0));
+		try {
+			batch.claimChunk(0);
+			fail();
+		} catch (ChunkInProgressException e) {
+			// claimed by the upload in flight
+		}
+		batch.finishChunk(0, true);
+		assertFalse(batch.claimChunk(0));
+
+		// a failed chunk can be retried
+		assertTrue(batch.claimChunk(2));
+		batch.finishChunk(2, false);
+		assertTrue(batch.claimChunk(2));
+		batch.finishChunk(2, true);
+		assertTrue(batch.claimChunk(3));
+		batch.finishChunk(3, true);
+
+		ChunkStatus status = batch.getChunkStatus();
+		assertEquals(3, status.getCount());
+		assertEquals(2, status.getReceived().size());
+		assertArrayEquals(new long[] { 0, 0 }, status.getReceived().get(0));
+		assertArrayEquals(new long[] { 2, 3 }, status.getReceived().get(1));
+	}
+
+	@Test(expected = InvalidChunkException.class)
+	public void negativeChunkShouldBeRejected() {
+		new Batch(1L).claimChunk(-1);
+	}
+
+	@Test
+	public void discardShouldDeleteTheRunsAndCountTheStagedBytes() {
+		Batch batch = new Batch(1L, 2, folder.getRoot().toPath());
+		batch.upload(Arrays.asList(new Price(1L, now, "a"), new Price(2L, now, "b"), new Price(3L, now, "c")));
+		batch.upload(Collections.singletonList(new Price(4L, now, "payload")));
+		assertEquals(1, folder.getRoot().list().length);
+
+		assertTrue(batch.discard() > 0);
+		assertEquals(0, folder.getRoot().list().length);
+		try {
+			batch.upload(Collections.singletonList(new Price(5L, now, "e")));
+			fail();
+		} catch (BatchAlreadyCommitted e) {
+			// closed by the discard
+		}
+	}
+
+}
@@ -4,6 +4,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,13 +32,19 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import com.batch.Application;
+import com.batch.codec.BinaryPriceFormat;
+import com.batch.model.EpochNanos;
 import com.batch.model.Price;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Integeration test for the application
@@ -49,6 +62,14 @@ public class RESTIntegerationTest {
 
 	private static final String UPLOAD = "upload";
 
+	private static final String STREAM = "stream";
+	private static final String CHUNKS = "chunks";
+	private static final String ASYNC = "async";
+
+	private static final String BULK = "bulk";
+
+	private static final String FEED = "feed";
+
 	private static final String CREATE = "create";
 
 	private static final String COMMIT = "commit";
@@ -204,6 +225,266 @@ public class RESTIntegerationTest {
 
 	}
 
+	@Test
+	public void createAndStreamLargeBatchCommitAndGetLatestPriceShouldBeAccessible() {
+
+		// create batch
+		ResponseEntity<Long> createBatchResponse = create();
+		assertEquals(HttpStatus.OK, createBatchResponse.getStatusCode());
+		long batchId = createBatchResponse.getBody();
+
+		// stream more prices than fit in one block, twice for every id
+		LocalDateTime asOf = LocalDateTime.now();
+		List<Price> prices = LongStream.range(8000, 10500).mapToObj(new PriceMapper(asOf))
+				.collect(Collectors.toList());
+		prices.addAll(LongStream.range(8000, 10500).mapToObj(new PriceMapper(asOf.plusHours(1)))
+				.collect(Collectors.toList()));
+		assertEquals(HttpStatus.NO_CONTENT, stream(batchId, prices).getStatusCode());
+
+		// get price before commit
+		assertEquals(HttpStatus.NOT_FOUND, getPrice(9000L).getStatusCode());
+
+		// commit
+		commit(batchId);
+
+		// get price
+		validateBatch(8000L, asOf.plusHours(1));
+		validateBatch(10499L, asOf.plusHours(1));
+	}
+
+	@Test
+	public void streamBatchShouldReturnNotFoundIfBatchIdIsNotAvailable() {
+		ResponseEntity<Void> response = stream(1L, Collections.singletonList(price(995945949L)));
+		assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+	}
+
+	@Test
+	public void retriedChunkShouldBeAcknowledgedWithoutBeingAppliedAgain() {
+
+		// create batch
+		long batchId = create().getBody();
+
+		// upload chunks 0 and 2, then retry chunk 0 with newer prices
+		LocalDateTime asOf = LocalDateTime.now();
+		assertEquals(HttpStatus.NO_CONTENT, uploadChunk(batchId, 0, Collections.singletonList(
+				new Price(13000L, asOf, "first"))).getStatusCode());
+		assertEquals(HttpStatus.NO_CONTENT, uploadChunk(batchId, 2, Collections.singletonList(
+				new Price(13002L, asOf, "third"))).getStatusCode());
+		assertEquals(HttpStatus.NO_CONTENT, uploadChunk(batchId, 0, Collections.singletonList(
+				new Price(13000L, asOf.plusHours(1), "retried"))).getStatusCode());
+
+		// the status lists the received chunks
+		ResponseEntity<JsonNode> chunks = template.getForEntity(
+				HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + CHUNKS, JsonNode.class);
+		assertEquals(HttpStatus.OK, chunks.getStatusCode());
+		assertEquals(2, chunks.getBody().get("count").asInt());
+		assertEquals("[[0,0],[2,2]]", chunks.getBody().get("received").toString());
+
+		// an invalid sequence number is rejected
+		assertEquals(HttpStatus.BAD_REQUEST, uploadChunk(batchId, -1, Collections.singletonList(
+				new Price(13001L, asOf, "second"))).getStatusCode());
+
+		// commit
+		commit(batchId);
+
+		// the retried chunk was not merged
+		validateBatch(13000L, asOf);
+		validateBatch(13002L, asOf);
+	}
+
+	@Test
+	public void asyncUploadInJsonAndBinaryCommitAndGetLatestPriceShouldBeAccessible() {
+
+		// create batch
+		long batchId = create().getBody();
+
+		// upload more prices than fit in one block in JSON, newer ones in binary
+		LocalDateTime asOf = LocalDateTime.now();
+		List<Price> prices = LongStream.range(20000, 21500).mapToObj(new PriceMapper(asOf))
+				.collect(Collectors.toList());
+		assertEquals(HttpStatus.NO_CONTENT, async(batchId, new HttpEntity<>(prices)).getStatusCode());
+		List<Price> newer = LongStream.range(21000, 21500).mapToObj(new PriceMapper(asOf.plusHours(1)))
+				.collect(Collectors.toList());
+		assertEquals(HttpStatus.NO_CONTENT, async(batchId, binary(newer)).getStatusCode());
+
+		// commit
+		commit(batchId);
+
+		// get price
+		validateBatch(20000L, asOf);
+		validateBatch(21499L, asOf.plusHours(1));
+
+		// unknown batch
+		assertEquals(HttpStatus.NOT_FOUND, async(1L, new HttpEntity<>(prices)).getStatusCode());
+	}
+
+	@Test
+	public void createAndUploadBinaryBatchCommitAndGetBinaryPriceShouldBeAccessible() {
+
+		// create batch
+		long batchId = create().getBody();
+
+		// upload
+		Price price = price(11000L);
+		List<Price> prices = Arrays.asList(price(11001L), price, price(11002L));
+		ResponseEntity<Void> response = uploadBinary(batchId, prices);
+		assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode());
+
+		// commit
+		commit(batchId);
+
+		// get price in both formats
+		assertEquals(price, getPrice(price.getId()).getBody());
+		ResponseEntity<byte[]> binaryResponse = getBinaryPrice(price.getId());
+		assertEquals(HttpStatus.OK, binaryResponse.getStatusCode());
+		assertEquals(BinaryPriceFormat.MEDIA_TYPE, binaryResponse.getHeaders().getContentType());
+
+		ByteBuffer buffer = ByteBuffer.wrap(binaryResponse.getBody());
+		assertEquals(price.getId(), buffer.getLong());
+		assertEquals(price.getAsOf(), EpochNanos.toLocalDateTime(buffer.getLong()));
+		assertEquals(price.getPayload().length(), buffer.getInt());
+		assertEquals(price.getPayload(), StandardCharsets.UTF_8.decode(buffer).toString());
+	}
+
+	@Test
+	public void getBinaryPriceShouldReturnNotFoundIfPriceIdIsNotAvailable() {
+		assertEquals(HttpStatus.NOT_FOUND, getBinaryPrice(2L).getStatusCode());
+	}
+
+	@Test
+	public void uploadBinaryRecordLongerThanTheLimitShouldBeRejected() {
+		long batchId = create().getBody();
+
+		// only the header, with a length close to Integer.MAX_VALUE
+		byte[] record = ByteBuffer.allocate(BinaryPriceFormat.HEADER_SIZE).putLong(12000L)
+				.putLong(EpochNanos.of(LocalDateTime.now())).putInt(Integer.MAX_VALUE - 8).array();
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(BinaryPriceFormat.MEDIA_TYPE);
+		ResponseEntity<Void> response = template.exchange(
+				HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + UPLOAD, HttpMethod.PUT,
+				new HttpEntity<>(record, headers), Void.class);
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+		discard(batchId);
+	}
+
+	@Test
+	public void uploadPriceWithAnAsOfBeyondTheRangeOfTheStoreShouldBeRejected() {
+		long batchId = create().getBody();
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		ResponseEntity<Void> response = template.exchange(
+				HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + STREAM, HttpMethod.PUT,
+				new HttpEntity<>("[{\"id\":12001,\"asOf\":\"3000-01-01T00:00:00\",\"payload\":\"a\"}]", headers),
+				Void.class);
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+		discard(batchId);
+	}
+
+	@Test
+	public void createAndUploadBatchCommitAndBulkGetShouldReturnPricesAndMisses() {
+
+		// create batch
+		long batchId = create().getBody();
+
+		// upload
+		Price first = price(12000L);
+		Price second = price(12001L);
+		upload(batchId, Arrays.asList(first, second));
+
+		// commit
+		commit(batchId);
+
+		// bulk get
+		ResponseEntity<JsonNode> response = template.postForEntity(HOST + PRICES + URL_SEPERATOR + BULK,
+				Arrays.asList(12000L, 12999L, 12001L), JsonNode.class);
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertNotNull(response.getHeaders().getFirst(PriceController.VERSION_HEADER));
+
+		JsonNode prices = response.getBody();
+		assertEquals(3, prices.size());
+		assertEquals(first.getPayload(), prices.get(0).get("payload").asText());
+		assertEquals(12999L, prices.get(1).get("id").asLong());
+		assertTrue(prices.get(1).get("missing").asBoolean());
+		assertEquals(second.getPayload(), prices.get(2).get("payload").asText());
+	}
+
+	@Test
+	public void getPriceAsOfAnInstantShouldFailIfTheHistoryIsNotEnabled() {
+		assertEquals(HttpStatus.BAD_REQUEST, template
+				.getForEntity(HOST + PRICES + URL_SEPERATOR + 1 + "?asOf=2018-07-01T16:00:00", String.class)
+				.getStatusCode());
+	}
+
+	@Test
+	public void getPriceWithTheETagShouldReturnNotModifiedUntilTheNextCommit() {
+
+		// create batch, upload and commit
+		long batchId = create().getBody();
+		upload(batchId, Collections.singletonList(price(23000L)));
+		commit(batchId);
+
+		ResponseEntity<Price> priceResponse = getPrice(23000L);
+		assertEquals(HttpStatus.OK, priceResponse.getStatusCode());
+		String etag = priceResponse.getHeaders().getETag();
+		assertNotNull(etag);
+		assertEquals(etag, getBinaryPrice(23000L).getHeaders().getETag());
+		assertEquals(HttpStatus.NOT_MODIFIED, getPriceIfNoneMatch(23000L, etag).getStatusCode());
+
+		// a newer price from another commit
+		batchId = create().getBody();
+		Price newer = new Price(23000L, priceResponse.getBody().getAsOf().plusSeconds(1), "newer");
+		upload(batchId, Collections.singletonList(newer));
+		commit(batchId);
+
+		ResponseEntity<Price> modified = getPriceIfNoneMatch(23000L, etag);
+		assertEquals(HttpStatus.OK, modified.getStatusCode());
+		assertEquals(newer, modified.getBody());
+		assertTrue(!etag.equals(modified.getHeaders().getETag()));
+	}
+
+	@Test
+	public void feedShouldPushTheCommittedPricesOfTheSubscribedIds() throws Exception {
+
+		// subscribe
+		HttpURLConnection feed = (HttpURLConnection) new URL(HOST + PRICES + URL_SEPERATOR + FEED + "?ids=22000,22001")
+				.openConnection();
+		feed.setReadTimeout(5000);
+		assertEquals(HttpStatus.OK.value(), feed.getResponseCode());
+
+		// create batch, upload and commit
+		long batchId = create().getBody();
+		Price first = price(22000L);
+		upload(batchId, Arrays.asList(first, price(22002L)));
+		commit(batchId);
+
+		try (BufferedReader events = new BufferedReader(
+				new InputStreamReader(feed.getInputStream(), StandardCharsets.UTF_8))) {
+			assertEquals("id:", events.readLine().substring(0, 3));
+			assertEquals("event:commit", events.readLine());
+			JsonNode commit = new ObjectMapper().readTree(events.readLine().substring("data:".length()));
+			assertEquals(1, commit.get("prices").size());
+			assertEquals(first.getPayload(), commit.get("prices").get(0).get("payload").asText());
+		} finally {
+			feed.disconnect();
+		}
+	}
+
+	@Test
+	public void commitShouldBeReportedInMetrics() {
+
+		// create batch, upload and commit
+		long batchId = create().getBody();
+		upload(batchId, Arrays.asList(price(13000L), price(13001L)));
+		commit(batchId);
+
+		// metrics
+		JsonNode merged = template.getForObject(HOST + "actuator/metrics/batch.prices.merged", JsonNode.class);
+		assertTrue(merged.get("measurements").get(0).get("value").asDouble() >= 2);
+		JsonNode commits = template.getForObject(HOST + "actuator/metrics/batch.commit", JsonNode.class);
+		assertTrue(commits.get("measurements").get(0).get("value").asDouble() >= 1);
+	}
+
 	@Test
 	public void createBatchesAndUploadToEnsureLatestPricesAreVisible() {
 
@@ -243,6 +524,51 @@ public class RESTIntegerationTest {
 				new HttpEntity<>(prices), Void.class);
 	}
 
+	private ResponseEntity<Void> uploadChunk(Long batchId, long seq, List<Price> prices) {
+		return template.exchange(HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + STREAM + "?seq=" + seq,
+				HttpMethod.PUT, new HttpEntity<>(prices), Void.class);
+	}
+
+	private ResponseEntity<Void> stream(Long batchId, List<Price> prices) {
+		return template.exchange(HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + STREAM, HttpMethod.PUT,
+				new HttpEntity<>(prices), Void.class);
+	}
+
+	private ResponseEntity<Void> async(Long batchId, HttpEntity<?> body) {
+		return template.exchange(HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + ASYNC, HttpMethod.PUT, body,
+				Void.class);
+	}
+
+	private ResponseEntity<Void> uploadBinary(Long batchId, List<Price> prices) {
+		return template.exchange(HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + UPLOAD, HttpMethod.PUT,
+				binary(prices), Void.class);
+	}
+
+	private HttpEntity<byte[]> binary(List<Price> prices) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (Price price : prices) {
+			byte[] record = BinaryPriceFormat.encode(price);
+			body.write(record, 0, record.length);
+		}
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(BinaryPriceFormat.MEDIA_TYPE);
+		return new HttpEntity<>(body.toByteArray(), headers);
+	}
+
+	private ResponseEntity<byte[]> getBinaryPrice(long priceId) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setAccept(Collections.singletonList(BinaryPriceFormat.MEDIA_TYPE));
+		return template.exchange(HOST + PRICES + URL_SEPERATOR + priceId, HttpMethod.GET, new HttpEntity<>(headers),
+				byte[].class);
+	}
+
+	private ResponseEntity<Price> getPriceIfNoneMatch(long priceId, String etag) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setIfNoneMatch(etag);
+		return template.exchange(HOST + PRICES + URL_SEPERATOR + priceId, HttpMethod.GET, new HttpEntity<>(headers),
+				Price.class);
+	}
+
 	private ResponseEntity<Void> commit(Long batchId) {
 		return template.exchange(HOST + BATCHES + URL_SEPERATOR + batchId + URL_SEPERATOR + COMMIT, HttpMethod.PUT,
 				null, Void.class);
@@ -0,0 +1,129 @@
+package com.batch.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.batch.component.BatchMetrics;
+import com.batch.component.InMemoryCache;
+import com.batch.component.PriceResponseCache;
+import com.batch.component.UploadPipeline;
+import com.batch.feed.PriceFeed;
+import com.batch.model.Batch;
+import com.batch.model.Price;
+import com.batch.model.StagedPrices;
+import com.batch.store.PriceStore;
+import com.batch.store.impl.HeapPriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test for the group commit of the batches
+ *
+ * @author faizanhussain
+ *
+ */
+public class CommitCoalescerTest {
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0);
+	private final PriceStore store = new HeapPriceStore();
+	private final CommitCoalescer coalescer = new CommitCoalescer(0, 64,
+			new BatchMetrics(new SimpleMeterRegistry(), store, new InMemoryCache(), new PriceFeed(0, 0, store),
+					new PriceResponseCache(store, new ObjectMapper(), 0), new UploadPipeline()));
+
+	@Test
+	public void batchesWaitingForACommitShouldBePublishedTogetherInTheirOrder() throws Exception {
+		CountDownLatch publishing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			Future<Long> first = executor.submit(() -> commit(staged(new Price(3L, now, "a")), prices -> {
+				publishing.countDown();
+				release.await();
+				return store.commit(prices);
+			}));
+			publishing.await();
+
+			// both wait for the first commit, the second arrives after the first
+			AtomicReference<Thread> secondThread = new AtomicReference<>();
+			Future<Long> second = executor.submit(() -> {
+				secondThread.set(Thread.currentThread());
+				return commit(staged(new Price(1L, now, "b"), new Price(2L, now, "c")), store::commit);
+			});
+			awaitWaiting(secondThread);
+			AtomicReference<Thread> thirdThread = new AtomicReference<>();
+			Future<Long> third = executor.submit(() -> {
+				thirdThread.set(Thread.currentThread());
+				return commit(staged(new Price(1L, now, "d"), new Price(2L, now.plusSeconds(1), "e")), store::commit);
+			});
+			awaitWaiting(thirdThread);
+			release.countDown();
+
+			assertEquals(1L, (long) first.get());
+			assertEquals(2L, (long) second.get());
+			assertEquals(2L, (long) third.get());
+			assertNotEquals(first.get(), second.get());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// as if committed one after the other, an equal asOf keeps the earlier price
+		assertEquals(new Price(1L, now, "b"), store.get(1L));
+		assertEquals(new Price(2L, now.plusSeconds(1), "e"), store.get(2L));
+		assertEquals(new Price(3L, now, "a"), store.get(3L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void failedPublishShouldFailTheCommit() {
+		commit(staged(new Price(1L, now, "a")), prices -> {
+			throw new IllegalArgumentException("failed");
+		});
+	}
+
+	private long commit(StagedPrices staged, Publish publish) {
+		try (StagedPrices prices = staged) {
+			return coalescer.commit(prices, group -> {
+				try {
+					return publish.publish(group);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		}
+	}
+
+	private StagedPrices staged(Price... prices) {
+		Batch batch = new Batch(1L);
+		batch.upload(Arrays.asList(prices));
+		return batch.closeAndRefresh();
+	}
+
+	private static void awaitWaiting(AtomicReference<Thread> thread) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (thread.get() == null || thread.get().getState() != Thread.State.WAITING) {
+			if (System.nanoTime() > deadline) {
+				throw new AssertionError("The commit is not waiting");
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	@FunctionalInterface
+	private interface Publish {
+
+		long publish(Iterable<Price> prices) throws InterruptedException;
+
+	}
+
+}
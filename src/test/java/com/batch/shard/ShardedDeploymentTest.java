@@ -0,0 +1,148 @@
+package com.batch.shard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.batch.Application;
+import com.batch.model.Price;
+import com.batch.store.PriceStore;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Test for a sharded deployment of two nodes on localhost
+ *
+ * @author faizanhussain
+ *
+ */
+public class ShardedDeploymentTest {
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0, 0, 123456789);
+
+	private final ConfigurableApplicationContext[] nodes = new ConfigurableApplicationContext[2];
+	private final String[] urls = new String[2];
+	private ShardRouter router;
+	private TestRestTemplate template;
+
+	@Before
+	public void startNodes() throws IOException {
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = "http://localhost:" + freePort();
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new SpringApplicationBuilder(Application.class).run(
+					"--server.port=" + urls[i].substring(urls[i].lastIndexOf(':') + 1), "--spring.jmx.enabled=false",
+					"--logging.level.com.batch=WARN", "--batch.shard.enabled=true",
+					"--batch.shard.nodes=" + String.join(",", urls), "--batch.shard.index=" + i);
+		}
+		router = new ShardRouter(urls, 0);
+		template = new TestRestTemplate(nodes[0].getBean(RestTemplateBuilder.class));
+	}
+
+	@After
+	public void stopNodes() {
+		for (ConfigurableApplicationContext node : nodes) {
+			if (node != null && node.isActive()) {
+				node.close();
+			}
+		}
+	}
+
+	@Test
+	public void commitShouldPublishThePricesOnTheShardsWhichOwnThem() {
+		List<Price> prices = prices(0, 100);
+		long batchId = create(0);
+		assertEquals(HttpStatus.NO_CONTENT, upload(0, batchId, prices).getStatusCode());
+		assertEquals(HttpStatus.NOT_FOUND, template.getForEntity(urls[1] + "/prices/1", String.class).getStatusCode());
+
+		assertEquals(HttpStatus.NO_CONTENT, batch(0, batchId, "commit", HttpMethod.PUT).getStatusCode());
+		int[] owned = new int[nodes.length];
+		for (Price price : prices) {
+			int owner = router.owner(price.getId());
+			owned[owner]++;
+			assertEquals(price, store(owner).get(price.getId()));
+			assertNull(store(1 - owner).get(price.getId()));
+			// read from the node which does not own it
+			assertEquals(price, template.getForObject(urls[1 - owner] + "/prices/" + price.getId(), Price.class));
+		}
+		assertTrue(owned[0] > 0 && owned[1] > 0);
+		assertEquals(HttpStatus.NOT_FOUND, batch(0, batchId, "commit", HttpMethod.PUT).getStatusCode());
+
+		// a bulk read names the owner of the ids of the other shard
+		List<Long> ids = prices.stream().map(Price::getId).collect(Collectors.toList());
+		JsonNode bulk = template.postForObject(urls[0] + "/prices/bulk", ids, JsonNode.class);
+		assertEquals(prices.size(), bulk.size());
+		for (int i = 0; i < prices.size(); i++) {
+			if (router.isLocal(ids.get(i))) {
+				assertEquals(prices.get(i).getPayload(), bulk.get(i).get("payload").asText());
+			} else {
+				assertEquals(urls[1], bulk.get(i).get("owner").asText());
+			}
+		}
+	}
+
+	@Test
+	public void commitShouldPublishNothingIfAShardFailsToPrepare() {
+		List<Price> prices = prices(1000, 1100);
+		long batchId = create(0);
+		assertEquals(HttpStatus.NO_CONTENT, upload(0, batchId, prices).getStatusCode());
+		nodes[1].close();
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, batch(0, batchId, "commit", HttpMethod.PUT).getStatusCode());
+		for (Price price : prices) {
+			assertNull(store(0).get(price.getId()));
+		}
+		assertEquals(0, store(0).size());
+		assertEquals(HttpStatus.NOT_FOUND, batch(0, batchId, "discard", HttpMethod.DELETE).getStatusCode());
+	}
+
+	private long create(int node) {
+		Long batchId = template.postForObject(urls[node] + "/batches/create", null, Long.class);
+		assertNotNull(batchId);
+		return batchId;
+	}
+
+	private ResponseEntity<Void> upload(int node, long batchId, List<Price> prices) {
+		return template.exchange(urls[node] + "/batches/" + batchId + "/upload", HttpMethod.PUT,
+				new HttpEntity<>(prices), Void.class);
+	}
+
+	private ResponseEntity<Void> batch(int node, long batchId, String action, HttpMethod method) {
+		return template.exchange(urls[node] + "/batches/" + batchId + "/" + action, method, null, Void.class);
+	}
+
+	private PriceStore store(int node) {
+		return nodes[node].getBean(PriceStore.class);
+	}
+
+	private List<Price> prices(long from, long to) {
+		return LongStream.range(from, to).mapToObj(id -> new Price(id, now, "p" + id)).collect(Collectors.toList());
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+}
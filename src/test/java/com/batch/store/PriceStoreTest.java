@@ -0,0 +1,185 @@
+package com.batch.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.batch.model.Price;
+import com.batch.store.impl.HeapPriceStore;
+import com.batch.store.impl.OffHeapPriceStore;
+import com.batch.store.impl.PayloadCompactor;
+
+/**
+ * Test for the price stores
+ *
+ * @author faizanhussain
+ *
+ */
+@RunWith(Parameterized.class)
+public class PriceStoreTest {
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0, 0, 123456789);
+
+	private final PriceStore store;
+
+	public PriceStoreTest(String name, Supplier<PriceStore> store) {
+		this.store = store.get();
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> stores() {
+		return Arrays.asList(new Object[] { "heap", (Supplier<PriceStore>) HeapPriceStore::new },
+				new Object[] { "parallel-heap", (Supplier<PriceStore>) () -> new HeapPriceStore(1, 4) },
+				new Object[] { "compacted-heap",
+						(Supplier<PriceStore>) () -> new HeapPriceStore(0, 1, new PayloadCompactor(true, 1, 64)) },
+				new Object[] { "off-heap", (Supplier<PriceStore>) OffHeapPriceStore::new });
+	}
+
+	@Test
+	public void getShouldReturnNullIfPriceIsNotCommitted() {
+		assertNull(store.get(1L));
+		assertEquals(0L, store.getVersion());
+	}
+
+	@Test
+	public void commitShouldPublishANewVersion() {
+		Price price = new Price(1L, now, "a");
+
+		assertEquals(1L, store.commit(Collections.singletonList(price)));
+		assertEquals(price, store.get(1L));
+		assertEquals(2L, store.commit(Collections.emptyList()));
+		assertEquals(price, store.get(1L));
+	}
+
+	@Test
+	public void commitShouldKeepTheLatestPrice() {
+		Price older = new Price(1L, now, "older");
+		Price newer = new Price(1L, now.plusSeconds(1), "newer");
+
+		store.commit(Collections.singletonList(newer));
+		store.commit(Collections.singletonList(older));
+		assertEquals(newer, store.get(1L));
+
+		store.commit(Arrays.asList(new Price(2L, now, "a"), new Price(2L, now.plusSeconds(1), "b")));
+		assertEquals("b", store.get(2L).getPayload());
+		assertEquals(2, store.size());
+	}
+
+	@Test
+	public void commitShouldKeepAPriceWithoutAPayload() {
+		Price empty = new Price(1L, now, (String) null);
+
+		store.commit(Collections.singletonList(empty));
+		assertEquals(empty, store.get(1L));
+		assertEquals(0, store.getFootprint().getPayloadLength());
+
+		store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(1), "a")));
+		assertEquals("a", store.get(1L).getPayload());
+		store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(2), (String) null)));
+		assertNull(store.get(1L).getPayload());
+		assertEquals(0, store.getFootprint().getPayloadLength());
+	}
+
+	@Test
+	public void failedCommitShouldNotBePublishedByTheNextOne() {
+		store.commit(Collections.singletonList(new Price(1L, now, "a")));
+		try {
+			store.commit(() -> {
+				Iterator<Price> prices = Arrays.asList(new Price(1L, now.plusSeconds(2), "b"),
+						new Price(2L, now, "c")).iterator();
+				return new Iterator<Price>() {
+					@Override
+					public boolean hasNext() {
+						return true;
+					}
+
+					@Override
+					public Price next() {
+						if (!prices.hasNext()) {
+							throw new IllegalStateException("failed");
+						}
+						return prices.next();
+					}
+				};
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(1L, store.getVersion());
+		}
+
+		assertEquals(2L, store.commit(Collections.singletonList(new Price(3L, now, "d"))));
+		assertEquals("a", store.get(1L).getPayload());
+		assertNull(store.get(2L));
+		assertEquals(2, store.size());
+
+		// older than the price of the failed commit, newer than the committed one
+		store.commit(Arrays.asList(new Price(1L, now.plusSeconds(1), "e"), new Price(2L, now, "f")));
+		assertEquals("e", store.get(1L).getPayload());
+		assertEquals("f", store.get(2L).getPayload());
+		assertEquals(3, store.size());
+	}
+
+	@Test
+	public void snapshotShouldKeepItsVersionWhileCommitsArePublished() {
+		Price first = new Price(1L, now, "first");
+		Price second = new Price(2L, now, "second");
+		store.commit(Arrays.asList(first, second));
+
+		try (PriceSnapshot snapshot = store.snapshot()) {
+			store.commit(Arrays.asList(new Price(1L, now.plusSeconds(1), "a"), new Price(2L, now.plusSeconds(1), "b"),
+					new Price(3L, now, "c")));
+			store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(2), "d")));
+
+			assertEquals(1L, snapshot.getVersion());
+			assertEquals(first, snapshot.get(1L));
+			assertEquals(second, snapshot.get(2L));
+			assertNull(snapshot.get(3L));
+
+			List<Price> prices = new ArrayList<>();
+			snapshot.forEach(prices::add);
+			assertEquals(2, prices.size());
+			assertTrue(prices.containsAll(Arrays.asList(first, second)));
+		}
+
+		store.commit(Collections.singletonList(new Price(1L, now.plusSeconds(3), "e")));
+		assertEquals("e", store.get(1L).getPayload());
+		assertEquals("b", store.get(2L).getPayload());
+		assertEquals("c", store.get(3L).getPayload());
+	}
+
+	@Test
+	public void storeShouldKeepManyPricesAndReportItsFootprint() {
+		for (int i = 0; i < 3; i++) {
+			final LocalDateTime asOf = now.plusMinutes(i);
+			List<Price> prices = LongStream.range(0, 10000).mapToObj(id -> new Price(id, asOf, "payload-" + id))
+					.collect(Collectors.toList());
+			store.commit(prices);
+		}
+
+		assertEquals(10000, store.size());
+		assertEquals(new Price(4321L, now.plusMinutes(2), "payload-4321"), store.get(4321L));
+
+		StoreFootprint footprint = store.getFootprint();
+		assertEquals(10000, footprint.getPrices());
+		assertTrue(footprint.getBytesPerPrice() > 0);
+		assertTrue(footprint.getMapLayoutBytesPerPrice() > 0);
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.batch.store.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDateTime;
+
+import org.junit.Test;
+
+import com.batch.model.Price;
+
+/**
+ * Test for the interning and deflating of the payloads kept by the heap store
+ *
+ * @author faizanhussain
+ *
+ */
+public class PayloadCompactorTest {
+
+	private final LocalDateTime now = LocalDateTime.of(2018, 7, 1, 16, 0, 0, 123456789);
+
+	@Test
+	public void equalPayloadsShouldShareOneArray() {
+		PayloadCompactor compactor = new PayloadCompactor(true, 0, 0);
+		Price first = compactor.compact(new Price(1L, now, "same"));
+		Price second = compactor.compact(new Price(2L, now, "same"));
+
+		assertSame(first.getPayloadBytes(), second.getPayloadBytes());
+		assertEquals(new Price(2L, now, "same"), compactor.expand(second));
+		assertEquals(1, compactor.getInternedCount());
+	}
+
+	@Test
+	public void largePayloadsShouldBeDeflatedWithTheTrainedDictionary() {
+		PayloadCompactor compactor = new PayloadCompactor(false, 64, 1024);
+		DeflatedPrice trained = null;
+		for (long id = 0; trained == null || trained.getDictionary() == null; id++) {
+			Price price = new Price(id, now, payload(id));
+			Price stored = compactor.compact(price);
+			assertTrue(stored instanceof DeflatedPrice);
+			assertTrue(stored.getPayloadBytes().length < price.getPayloadBytes().length);
+			assertEquals(price, compactor.expand(stored));
+			trained = (DeflatedPrice) stored;
+		}
+		assertNotNull(trained.getDictionary());
+
+		Price small = new Price(1L, now, "short");
+		assertSame(small, compactor.compact(small));
+		assertNull(compactor.compact(new Price(1L, now, (String) null)).getPayload());
+	}
+
+	private static String payload(long id) {
+		return "{\"instrument\":\"XS" + (1000000000L + id) + "\",\"currency\":\"EUR\",\"venue\":\"XETR\",\"bid\":"
+				+ (100 + id % 7) + ".25,\"ask\":" + (100 + id % 7) + ".27,\"conditions\":[\"firm\",\"regular\"]}";
+	}
+
+}